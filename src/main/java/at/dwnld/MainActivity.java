@@ -1,5 +1,7 @@
 package at.dwnld;
 
+import at.dwnld.controllers.MainController;
+import at.dwnld.services.StartupMetrics;
 import com.pixelduke.transit.Style;
 import com.pixelduke.transit.TransitStyleClass;
 import com.pixelduke.transit.TransitTheme;
@@ -27,6 +29,7 @@ public class MainActivity extends Application {
     private static FileLock lock;
     private static RandomAccessFile randomAccessFile;
     private static String downloadUrlFromArgs = null;
+    private MainController controller;
 
     @Override
     public void start(Stage stage) throws IOException {
@@ -34,6 +37,7 @@ public class MainActivity extends Application {
         stage.getIcons().add(new Image(Objects.requireNonNull(getClass().getResourceAsStream("/at/dwnld/icon.png"))));
         BorderPane borderPane = new BorderPane();
         borderPane.setCenter(fxmlLoader.load());
+        controller = fxmlLoader.getController();
         TabPane tabPane = new TabPane();
         borderPane.setTop(tabPane);
         borderPane.getStyleClass().add(TransitStyleClass.BACKGROUND);
@@ -45,11 +49,22 @@ public class MainActivity extends Application {
         stage.setTitle("dwnld");
         stage.setScene(scene);
         stage.show();
+        StartupMetrics.mark("firstFrame");
+        // A dwnld:// launch is only reported once its URL has reached the engine.
+        if (downloadUrlFromArgs != null) {
+            String url = downloadUrlFromArgs;
+            Platform.runLater(() -> controller.acceptLaunchUrl(url));
+        } else {
+            StartupMetrics.report();
+        }
 
     }
 
     @Override
     public void stop() {
+        if (controller != null) {
+            controller.saveDownloads();
+        }
         releaseLock();
     }
 
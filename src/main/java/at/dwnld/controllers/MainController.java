@@ -4,17 +4,28 @@ import at.dwnld.MainActivity;
 import at.dwnld.models.FileModel;
 import at.dwnld.models.FileStatus;
 import at.dwnld.models.SettingModel;
+import at.dwnld.models.WriteMode;
+import at.dwnld.services.DownloadArchive;
+import at.dwnld.services.DownloadObserver;
 import at.dwnld.services.DownloadService;
+import at.dwnld.services.NetworkTraces;
+import at.dwnld.services.StreamServer;
+import at.dwnld.services.StartupMetrics;
 import com.pixelduke.transit.Style;
 import com.pixelduke.transit.TransitStyleClass;
 import com.pixelduke.transit.TransitTheme;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
 import javafx.application.Platform;
+import javafx.beans.binding.Bindings;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.fxml.FXMLLoader;
+import javafx.geometry.Orientation;
 import javafx.geometry.Pos;
+import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -22,23 +33,33 @@ import javafx.scene.control.Button;
 import javafx.scene.control.Dialog;
 import javafx.scene.control.Label;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.image.Image;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
 import javafx.scene.layout.*;
 import javafx.stage.DirectoryChooser;
+import javafx.stage.FileChooser;
 import javafx.stage.Modality;
 import javafx.stage.Stage;
+import javafx.util.Duration;
 import java.awt.*;
 import java.io.*;
 import java.net.URI;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.apache.commons.io.FileUtils;
 
-public class MainController {
+public class MainController implements DownloadObserver {
 
     @FXML private Label lblTotalDownloads;
     @FXML private Label lblActiveDownloads;
@@ -60,20 +81,33 @@ public class MainController {
 
     private static final ObservableList<FileModel> downloads = FXCollections.observableArrayList();
     SettingModel sm;
+    private DownloadService downloadService;
+    private final DownloadArchive archive = new DownloadArchive();
+    private boolean loadingArchivePage;
+    private final AtomicBoolean statusBarDirty = new AtomicBoolean();
+    private final AtomicBoolean saveDirty = new AtomicBoolean();
 
     @FXML
     private void initialize() {
         sm = SettingModel.getInstance();
         tableView.setItems(downloads);
+        tableView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
         tableView.setColumnResizePolicy(TableView.CONSTRAINED_RESIZE_POLICY_FLEX_LAST_COLUMN);
         columnName.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().getName()));
         columnSize.setCellValueFactory(cellData -> {
-            long size = cellData.getValue().getSize();
-            String displaySize = (size == -1) ? "N/A" : FileUtils.byteCountToDisplaySize(size);
-            return new SimpleStringProperty(displaySize);
+            FileModel file = cellData.getValue();
+            return Bindings.createStringBinding(() -> {
+                long size = file.getSize();
+                return (size == -1) ? "N/A" : FileUtils.byteCountToDisplaySize(size);
+            }, file.sizeProperty());
         });
         columnDate.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().getAdded().format(formatter)));
-        columnStatus.setCellValueFactory(cellData -> new SimpleStringProperty(cellData.getValue().getStatus().toString()));
+        columnStatus.setCellValueFactory(cellData -> cellData.getValue().statusProperty().asString());
+        columnProgress.setCellValueFactory(cellData -> {
+            FileModel file = cellData.getValue();
+            return Bindings.createStringBinding(() -> String.valueOf(file.getDownloadedSize()),
+                    file.downloadedSizeProperty(), file.sizeProperty());
+        });
         columnProgress.setCellFactory(column -> new TableCell<FileModel, String>() {
             private final ProgressBar progressBar = new ProgressBar();
 
@@ -84,13 +118,33 @@ public class MainController {
                     setGraphic(null);
                 } else {
                     FileModel file = getTableRow().getItem();
-                    double progress = (file.getDownloadedSize() * 1.0) / file.getSize();
+                    double progress = file.isMedia() && file.getMediaSegments() > 0
+                            ? (file.getMediaSegmentsDone() * 1.0) / file.getMediaSegments()
+                            : (file.getDownloadedSize() * 1.0) / file.getSize();
                     progressBar.setProgress(progress);
                     setGraphic(progressBar);
                 }
             }
         });
 
+        Timeline flushTimeline = new Timeline(new KeyFrame(Duration.millis(100), event -> {
+            if (FileModel.flushChanges() | statusBarDirty.getAndSet(false)) {
+                updateStatusBar();
+            }
+        }));
+        flushTimeline.setCycleCount(Timeline.INDEFINITE);
+        flushTimeline.play();
+
+        // downloads.dat is rewritten at most once a second; a burst of small-file completions
+        // would otherwise serialize the whole queue once per file.
+        Timeline saveTimeline = new Timeline(new KeyFrame(Duration.seconds(1), event -> {
+            if (saveDirty.getAndSet(false)) {
+                saveDownloads();
+            }
+        }));
+        saveTimeline.setCycleCount(Timeline.INDEFINITE);
+        saveTimeline.play();
+
         ContextMenu contextMenu = new ContextMenu();
         MenuItem openItem = new MenuItem("Open");
         MenuItem showItem = new MenuItem("Show in Folder");
@@ -101,6 +155,7 @@ public class MainController {
         MenuItem fileInformationItem = new MenuItem("File Information");
         MenuItem pauseResumeItem = new MenuItem();
         MenuItem cancelItem = new MenuItem("Cancel");
+        MenuItem copyStreamItem = new MenuItem("Copy Stream URL");
         contextMenu.getItems().addAll( showItem, removeFromListItem, removeItem, openPageItem, changeUrlItem);
 
         tableView.setRowFactory(tv -> {
@@ -109,18 +164,22 @@ public class MainController {
             row.setOnContextMenuRequested(event -> {
                 if (!row.isEmpty()) {
                     FileModel file = row.getItem();
-                    tableView.getSelectionModel().select(file);
+                    // Actions apply to the whole selection when the clicked row is part of it.
+                    if (!tableView.getSelectionModel().getSelectedItems().contains(file)) {
+                        tableView.getSelectionModel().clearAndSelect(row.getIndex());
+                    }
+                    List<FileModel> selection = new ArrayList<>(tableView.getSelectionModel().getSelectedItems());
 
                     contextMenu.getItems().remove(pauseResumeItem);
                     contextMenu.getItems().remove(cancelItem);
 
                     if (file.getStatus() == FileStatus.inProgress) {
                         pauseResumeItem.setText("Pause");
-                        pauseResumeItem.setOnAction(e -> pauseDownloadItem(file));
+                        pauseResumeItem.setOnAction(e -> pauseDownloadItems(selection));
                         contextMenu.getItems().addFirst(pauseResumeItem);
                     } else if (file.getStatus() == FileStatus.paused) {
                         pauseResumeItem.setText("Resume");
-                        pauseResumeItem.setOnAction(e -> resumeDownloadItem(file));
+                        pauseResumeItem.setOnAction(e -> resumeDownloadItems(selection));
                         contextMenu.getItems().addFirst(pauseResumeItem);
                     }
 
@@ -129,17 +188,26 @@ public class MainController {
                     }
 
                     if (file.getStatus() != FileStatus.completed) {
-                        cancelItem.setOnAction(e -> cancleFileItem(file));
+                        cancelItem.setOnAction(e -> cancelFileItems(selection));
                         contextMenu.getItems().add(contextMenu.getItems().contains(pauseResumeItem) ? 1 : 0, cancelItem);
                     }
 
                     openItem.setOnAction(e -> openFileItem(file));
                     showItem.setOnAction(e -> openFileFolder(file));
-                    removeItem.setOnAction(e -> removeFileItem(file));
-                    removeFromListItem.setOnAction(e -> removeFromList(file));
+                    removeItem.setOnAction(e -> removeFileItems(selection));
+                    removeFromListItem.setOnAction(e -> removeFromList(selection));
                     changeUrlItem.setOnAction(e -> changeFileUrl(file));
                     fileInformationItem.setOnAction(e -> openInformationDialog(file));
 
+                    if (file.isStreaming()) {
+                        copyStreamItem.setOnAction(e -> copyStreamUrl(file));
+                        if (!contextMenu.getItems().contains(copyStreamItem)) {
+                            contextMenu.getItems().add(copyStreamItem);
+                        }
+                    } else {
+                        contextMenu.getItems().remove(copyStreamItem);
+                    }
+
                     if (file.getWebsiteUrl() != null) {
                         openPageItem.setOnAction(e -> openWebsiteUrl(file));
                         if (!contextMenu.getItems().contains(openPageItem)) {
@@ -169,10 +237,40 @@ public class MainController {
         btnResume.setOnAction(event -> resumeAllDownloads());
         btnPause.setOnAction(event -> pauseAllDownloads());
         loadDownloads();
+        downloadService = new DownloadService(this);
+        downloadService.start();
         updateStatusBar();
         searchField.textProperty().addListener((observable, oldValue, newValue) -> {
             filterTable(newValue);
         });
+        tableView.skinProperty().addListener((observable, oldSkin, newSkin) -> attachArchivePaging());
+        StartupMetrics.mark("controllerReady");
+        loadArchivePage();
+    }
+
+    private void attachArchivePaging() {
+        for (Node node : tableView.lookupAll(".scroll-bar")) {
+            if (node instanceof ScrollBar scrollBar && scrollBar.getOrientation() == Orientation.VERTICAL) {
+                scrollBar.valueProperty().addListener((observable, oldValue, newValue) -> {
+                    if (newValue.doubleValue() >= scrollBar.getMax() * 0.9) {
+                        loadArchivePage();
+                    }
+                });
+            }
+        }
+    }
+
+    private void loadArchivePage() {
+        if (loadingArchivePage || archive.isExhausted()) {
+            return;
+        }
+        loadingArchivePage = true;
+        archive.loadPage(page -> Platform.runLater(() -> {
+            downloads.addAll(page);
+            loadingArchivePage = false;
+            updateStatusBar();
+            filterTable(searchField.getText());
+        }));
     }
     private void openWebsiteUrl(FileModel file) {
         try {
@@ -182,19 +280,16 @@ public class MainController {
         }
     }
 
-    private void removeFromList(FileModel file) {
-        downloads.remove(file);
-        refreshTable();
+    private void removeFromList(List<FileModel> files) {
+        downloadService.removeDownloads(files, false);
     }
 
-    private void resumeDownloadItem(FileModel file) {
-        DownloadService ds = new DownloadService(this);
-        ds.resumeDownload(file);
+    private void resumeDownloadItems(List<FileModel> files) {
+        downloadService.resumeDownloads(files);
     }
 
-    private void pauseDownloadItem(FileModel file) {
-        DownloadService ds = new DownloadService(this);
-        ds.pauseDownload(file);
+    private void pauseDownloadItems(List<FileModel> files) {
+        downloadService.pauseDownloads(files);
     }
 
     private void changeFileUrl(FileModel file) {
@@ -223,6 +318,16 @@ public class MainController {
         });
     }
 
+    private void copyStreamUrl(FileModel file) {
+        try {
+            ClipboardContent content = new ClipboardContent();
+            content.putString(StreamServer.getInstance().urlFor(file));
+            Clipboard.getSystemClipboard().setContent(content);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
     private void openInformationDialog(FileModel file) {
         Dialog<Void> dialog = new Dialog<>();
         dialog.setTitle("File Information");
@@ -246,6 +351,54 @@ public class MainController {
         grid.add(new Label(file.getLastTried().format(formatter)), 1, 5);
         grid.add(new Label("Status:"), 0, 6);
         grid.add(new Label(file.getStatus().toString()), 1, 6);
+        int row = 7;
+        if (file.getExtractionStatus() != null) {
+            grid.add(new Label("Extraction:"), 0, row);
+            grid.add(new Label(file.getExtractionStatus()), 1, row++);
+        }
+        if (file.isMedia()) {
+            grid.add(new Label("Segments:"), 0, row);
+            grid.add(new Label(file.getMediaSegmentsDone() + " / " + file.getMediaSegments()
+                    + " (" + FileUtils.byteCountToDisplaySize(file.getDownloadedSize()) + ")"), 1, row++);
+        }
+        if (file.isStreaming()) {
+            grid.add(new Label("Available:"), 0, row);
+            grid.add(new Label(FileUtils.byteCountToDisplaySize(file.getContiguousBytes()) + " of "
+                    + FileUtils.byteCountToDisplaySize(file.getSize()) + " from start"), 1, row++);
+        }
+        List<NetworkTraces.RequestTrace> traces = NetworkTraces.get(file.getPath());
+        if (!traces.isEmpty()) {
+            StringBuilder text = new StringBuilder();
+            for (NetworkTraces.RequestTrace trace : traces) {
+                text.append(String.format("%s  %-10s dns %d ms, connect %d ms, tls %d ms, ttfb %d ms, %s in %d ms (%s/s)%s%n",
+                        trace.started().toLocalTime().withNano(0), trace.label(), trace.dnsMillis(), trace.connectMillis(),
+                        trace.tlsMillis(), trace.firstByteMillis(), FileUtils.byteCountToDisplaySize(trace.bytes()),
+                        trace.totalMillis(), FileUtils.byteCountToDisplaySize((long) trace.throughput()),
+                        trace.failure() != null ? ", failed: " + trace.failure() : ""));
+            }
+            TextArea traceArea = new TextArea(text.toString());
+            traceArea.setEditable(false);
+            traceArea.setPrefRowCount(8);
+            traceArea.setPrefColumnCount(60);
+
+            Button exportButton = new Button("Export All Traces...");
+            exportButton.setOnAction(event -> {
+                FileChooser fileChooser = new FileChooser();
+                fileChooser.setInitialFileName("traces.json");
+                fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("JSON", "*.json"));
+                File target = fileChooser.showSaveDialog(dialogStage);
+                if (target != null) {
+                    try {
+                        NetworkTraces.exportJson(target.toPath());
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+            grid.add(new Label("Trace:"), 0, row);
+            grid.add(traceArea, 1, row++);
+            grid.add(exportButton, 1, row);
+        }
         TransitTheme transitTheme = new TransitTheme(Style.DARK);
         transitTheme.setScene(dialog.getDialogPane().getScene());
         dialog.getDialogPane().setContent(grid);
@@ -253,16 +406,12 @@ public class MainController {
         dialog.showAndWait();
     }
 
-    private void cancleFileItem(FileModel file) {
-        DownloadService ds = new DownloadService(this);
-        ds.cancelDownload(file);
+    private void cancelFileItems(List<FileModel> files) {
+        downloadService.cancelDownloads(files);
     }
 
-    private void removeFileItem(FileModel file) {
-        DownloadService ds = new DownloadService(this);
-        downloads.remove(file);
-        ds.cancelDownload(file);
-
+    private void removeFileItems(List<FileModel> files) {
+        downloadService.removeDownloads(files, true);
     }
 
     private void openFileFolder(FileModel file) {
@@ -290,21 +439,11 @@ public class MainController {
     }
 
     private void pauseAllDownloads() {
-        DownloadService ds = new DownloadService(this);
-        for (FileModel file : downloads) {
-            if (file.getStatus() == FileStatus.inProgress) {
-                ds.pauseDownload(file);
-            }
-        }
+        downloadService.pauseDownloads(new ArrayList<>(downloads));
     }
 
     private void resumeAllDownloads() {
-        DownloadService ds = new DownloadService(this);
-        for (FileModel file : downloads) {
-            if (file.getStatus() == FileStatus.paused) {
-                ds.resumeDownload(file);
-            }
-        }
+        downloadService.resumeDownloads(new ArrayList<>(downloads));
     }
 
     private void openDeleteDialog() {
@@ -342,17 +481,49 @@ public class MainController {
                     if (dataFile.delete()) {
                         downloads.clear();
                     }}
+                archive.clear();
+                NetworkTraces.clear();
                 Platform.runLater(() -> tableView.refresh());
             }
         });
     }
 
 
+    // The URL of the dwnld:// link that launched the app, handed over after the first frame.
+    public void acceptLaunchUrl(String url) {
+        try {
+            downloadService.download(url, sm.getDefault_path(), null);
+            StartupMetrics.mark("urlAccepted");
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            StartupMetrics.report();
+        }
+    }
+
+    @Override
     public void addDownload(FileModel file) {
         downloads.add(file);
         updateStatusBar();
     }
 
+    @Override
+    public void addDownloads(List<FileModel> files) {
+        downloads.addAll(files);
+        updateStatusBar();
+    }
+
+    @Override
+    public void removeDownloads(Collection<FileModel> files) {
+        Set<FileModel> removed = new HashSet<>(files);
+        downloads.removeAll(removed);
+        List<FileModel> archived = removed.stream().filter(FileModel::isArchived).toList();
+        if (!archived.isEmpty()) {
+            archive.remove(archived);
+        }
+        refreshTable();
+    }
+
     private void openAddDownloadDialog() {
         Stage primaryStage = (Stage) btnAddDownload.getScene().getWindow();
         Dialog<String[]> dialog = new Dialog<>();
@@ -366,9 +537,9 @@ public class MainController {
         TransitTheme transitTheme = new TransitTheme(Style.DARK);
         transitTheme.setScene(dialog.getDialogPane().getScene());
 
-        TextField urlField = new TextField();
-        urlField.setPromptText("Enter URL here");
-        urlField.setPrefHeight(30);
+        TextArea urlField = new TextArea();
+        urlField.setPromptText("Enter one or more URLs, one per line");
+        urlField.setPrefRowCount(3);
         GridPane.setHgrow(urlField, Priority.ALWAYS);
 
         TextField pathField = new TextField(sm.getDefault_path());
@@ -389,12 +560,17 @@ public class MainController {
         GridPane grid = new GridPane();
         grid.setHgap(10);
         grid.setVgap(10);
-        grid.add(new Label("Download URL:"), 0, 0);
+        grid.add(new Label("Download URLs:"), 0, 0);
         grid.add(urlField, 1, 0);
         grid.add(new Label("Save Path:"), 0, 1);
         grid.add(pathField, 1, 1);
         grid.add(new HBox(10, browseButton), 1, 2);
 
+        CheckBox mappedCheck = new CheckBox("Memory-mapped writes");
+        grid.add(mappedCheck, 1, 3);
+        CheckBox streamingCheck = new CheckBox("Streaming (play while downloading)");
+        grid.add(streamingCheck, 1, 4);
+
         ColumnConstraints column1 = new ColumnConstraints();
         column1.setPercentWidth(30);
 
@@ -411,27 +587,59 @@ public class MainController {
 
         dialog.setResultConverter(dialogButton -> {
             if (dialogButton == downloadButtonType) {
-                return new String[]{urlField.getText(), pathField.getText()};
+                return new String[]{urlField.getText(), pathField.getText(), String.valueOf(mappedCheck.isSelected()),
+                        String.valueOf(streamingCheck.isSelected())};
             }
             return null;
         });
 
         Optional<String[]> result = dialog.showAndWait();
         result.ifPresent(data -> {
-            String url = data[0];
+            List<String> urls = new ArrayList<>();
+            for (String line : data[0].split("\\s+")) {
+                if (!line.isBlank()) {
+                    urls.add(line.trim());
+                }
+            }
             String savePath = data[1];
-            DownloadService ds = new DownloadService(this);
+            WriteMode writeMode = Boolean.parseBoolean(data[2]) ? WriteMode.mapped : null;
+            boolean streaming = Boolean.parseBoolean(data[3]);
+            if (urls.size() > 1 && writeMode == null && !streaming) {
+                downloadService.downloadAll(urls, savePath, null);
+                return;
+            }
             try {
-                ds.download(url, savePath, null);
+                for (String url : urls.isEmpty() ? List.of("") : urls) {
+                    downloadService.download(url, savePath, null, writeMode, streaming);
+                }
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
         });
     }
 
+    // Only unfinished downloads live in downloads.dat; completed ones move to the archive
+    // the first time they are saved so startup doesn't have to read the whole history.
     public void saveDownloads() {
+        List<FileModel> active = new ArrayList<>();
+        List<FileModel> completed = new ArrayList<>();
+        for (FileModel file : new ArrayList<>(downloads)) {
+            if (file.getStatus() != FileStatus.completed) {
+                active.add(file);
+            } else if (!file.isArchived()) {
+                file.setArchived(true);
+                completed.add(file);
+            }
+        }
+        // archive.dat is written before downloads.dat, so a completed row is always in one of them.
+        if (!completed.isEmpty() && !archive.append(completed)) {
+            for (FileModel file : completed) {
+                file.setArchived(false);
+            }
+            active.addAll(completed);
+        }
         try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("downloads.dat"))) {
-            oos.writeObject(new ArrayList<>(downloads));
+            oos.writeObject(active);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -451,12 +659,18 @@ public class MainController {
         try {
             FXMLLoader fxmlLoader = new FXMLLoader(MainActivity.class.getResource("activity_settings.fxml"));
             Parent root = fxmlLoader.load();
+            SettingsController settingsController = fxmlLoader.getController();
+            settingsController.setOnSaved(downloadService::reconfigure);
             root.getStyleClass().add(TransitStyleClass.BACKGROUND);
-            Scene scene = new Scene(root, 300, 260);
+            // The form has outgrown small screens, so it scrolls inside a window of modest height.
+            ScrollPane scrollPane = new ScrollPane(root);
+            scrollPane.setFitToWidth(true);
+            scrollPane.getStyleClass().add(TransitStyleClass.BACKGROUND);
+            Scene scene = new Scene(scrollPane, 320, 520);
             TransitTheme transitTheme = new TransitTheme(Style.DARK);
             transitTheme.setScene(scene);
             Stage settingsStage = new Stage();
-            settingsStage.setMinWidth(312);
+            settingsStage.setMinWidth(332);
             settingsStage.setMinHeight(272);
             settingsStage.getIcons().add(new Image(Objects.requireNonNull(getClass().getResourceAsStream("/at/dwnld/icon.png"))));
             settingsStage.setTitle("Settings");
@@ -472,6 +686,15 @@ public class MainController {
         if (searchText == null || searchText.isEmpty()) {
             tableView.setItems(downloads);
         } else {
+            if (!archive.isExhausted() && !loadingArchivePage) {
+                loadingArchivePage = true;
+                archive.loadRemaining(rest -> Platform.runLater(() -> {
+                    downloads.addAll(rest);
+                    loadingArchivePage = false;
+                    updateStatusBar();
+                    filterTable(searchField.getText());
+                }));
+            }
             ObservableList<FileModel> filteredList = FXCollections.observableArrayList();
             String lowerCaseFilter = searchText.toLowerCase();
 
@@ -505,15 +728,14 @@ public class MainController {
         });
     }
 
-    public static ObservableList<FileModel> getDownloads() {
+    @Override
+    public ObservableList<FileModel> getDownloads() {
         return downloads;
     }
 
+    @Override
     public void refreshTable() {
-        Platform.runLater(() -> {
-            tableView.refresh();
-            updateStatusBar();
-        });
-        saveDownloads();
+        statusBarDirty.set(true);
+        saveDirty.set(true);
     }
 }
\ No newline at end of file
@@ -1,9 +1,12 @@
 package at.dwnld.controllers;
 
+import at.dwnld.models.BandwidthProfile;
+import at.dwnld.models.FsyncPolicy;
 import at.dwnld.models.SettingModel;
 import javafx.fxml.FXML;
 import javafx.scene.control.*;
 import javafx.scene.control.Button;
+import javafx.scene.control.TextArea;
 import javafx.scene.control.TextField;
 import javafx.scene.input.MouseEvent;
 import javafx.stage.DirectoryChooser;
@@ -12,27 +15,55 @@ import javafx.stage.Window;
 import java.awt.*;
 import java.io.*;
 import java.net.URI;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class SettingsController {
     @FXML private TextField pathField;
     @FXML private Spinner<Integer> maxParallelSpinner;
     @FXML private CheckBox defaultAppCheck;
+    @FXML private CheckBox asyncEngineCheck;
+    @FXML private Spinner<Integer> mmapThresholdSpinner;
+    @FXML private CheckBox streamExtractCheck;
+    @FXML private CheckBox writeBehindCheck;
+    @FXML private CheckBox directIoCheck;
+    @FXML private ChoiceBox<FsyncPolicy> fsyncPolicyChoice;
+    @FXML private TextArea scheduleArea;
+    @FXML private TextField sourceAddressesField;
+    @FXML private Spinner<Integer> hostLimitSpinner;
+    @FXML private Spinner<Integer> segmentCountSpinner;
     @FXML private Button saveButton;
     @FXML private Button browseButton;
 
     private SettingModel settings;
+    private Runnable onSaved;
+
+    public void setOnSaved(Runnable onSaved) {
+        this.onSaved = onSaved;
+    }
 
     @FXML
     public void initialize() {
-        loadSetting();
-
-        if (settings == null) {
-            settings = SettingModel.getInstance();
-        }
+        settings = SettingModel.getInstance();
 
         pathField.setText(settings.getDefault_path() != null ? settings.getDefault_path() : "");
         maxParallelSpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 10, settings.getMax_parallel()));
         defaultAppCheck.setSelected(settings.isDefaultApplication());
+        asyncEngineCheck.setSelected(settings.isAsyncEngine());
+        streamExtractCheck.setSelected(settings.isStreamExtract());
+        writeBehindCheck.setSelected(settings.isWriteBehind());
+        directIoCheck.setSelected(settings.isDirectIo());
+        directIoCheck.disableProperty().bind(writeBehindCheck.selectedProperty().not());
+        fsyncPolicyChoice.getItems().setAll(FsyncPolicy.values());
+        fsyncPolicyChoice.setValue(settings.getFsync_policy());
+        scheduleArea.setText(formatProfiles(settings.getProfiles()));
+        segmentCountSpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 16, settings.getSegmentCount()));
+        hostLimitSpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(1, 64, settings.getHostConnectionLimit()));
+        sourceAddressesField.setText(String.join(", ", settings.getSourceAddresses()));
+        mmapThresholdSpinner.setValueFactory(new SpinnerValueFactory.IntegerSpinnerValueFactory(0, 1024 * 1024, (int) settings.getMmap_threshold(), 512));
 
         saveButton.setOnAction(event -> {
             saveSettings();
@@ -57,25 +88,53 @@ public class SettingsController {
         settings.setDefault_path(pathField.getText());
         settings.setMax_parallel(maxParallelSpinner.getValue());
         settings.setDefaultApplication(defaultAppCheck.isSelected());
+        settings.setAsyncEngine(asyncEngineCheck.isSelected());
+        settings.setMmap_threshold(mmapThresholdSpinner.getValue());
+        settings.setStreamExtract(streamExtractCheck.isSelected());
+        settings.setWriteBehind(writeBehindCheck.isSelected());
+        settings.setDirectIo(directIoCheck.isSelected());
+        settings.setFsync_policy(fsyncPolicyChoice.getValue());
+        settings.setProfiles(parseProfiles(scheduleArea.getText()));
+        settings.setHostConnectionLimit(hostLimitSpinner.getValue());
+        settings.setSegmentCount(segmentCountSpinner.getValue());
+        settings.setSourceAddresses(Arrays.stream(sourceAddressesField.getText().split(","))
+                .map(String::trim).filter(address -> !address.isEmpty()).toList());
 
         try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream("settings.dat"))) {
             oos.writeObject(settings);
         } catch (IOException e) {
             e.printStackTrace();
         }
+
+        if (onSaved != null) {
+            onSaved.run();
+        }
+    }
+
+    private static String formatProfiles(List<BandwidthProfile> profiles) {
+        StringBuilder text = new StringBuilder();
+        for (BandwidthProfile profile : profiles) {
+            text.append(profile.start()).append(' ')
+                    .append(profile.rateLimit() / 1024).append(' ')
+                    .append(profile.maxParallel()).append('\n');
+        }
+        return text.toString();
     }
 
-    private void loadSetting() {
-        File file = new File("settings.dat");
-        if (file.exists()) {
-            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
-                settings = (SettingModel) ois.readObject();
-            } catch (IOException | ClassNotFoundException e) {
-                settings = SettingModel.getInstance();
+    // One profile per line: "HH:mm <rate KB/s, 0 = unlimited> <max parallel>".
+    private static List<BandwidthProfile> parseProfiles(String text) {
+        List<BandwidthProfile> profiles = new ArrayList<>();
+        for (String line : text.split("\\R")) {
+            String[] parts = line.trim().split("\\s+");
+            if (parts.length != 3) continue;
+            try {
+                profiles.add(new BandwidthProfile(LocalTime.parse(parts[0]),
+                        Long.parseLong(parts[1]) * 1024, Math.max(1, Integer.parseInt(parts[2]))));
+            } catch (DateTimeParseException | NumberFormatException e) {
+                System.out.println("Ignoring invalid schedule line: " + line);
             }
-        } else {
-            settings = SettingModel.getInstance();
         }
+        return profiles;
     }
 
     public void openGitHub(MouseEvent mouseEvent) {
@@ -0,0 +1,7 @@
+package at.dwnld.models;
+
+import java.io.Serializable;
+import java.time.LocalTime;
+
+public record BandwidthProfile(LocalTime start, long rateLimit, int maxParallel) implements Serializable {
+}
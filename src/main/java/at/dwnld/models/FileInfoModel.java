@@ -1,4 +1,4 @@
 package at.dwnld.models;
 
-public record FileInfoModel(String finalUrl, String name, long size) {
+public record FileInfoModel(String finalUrl, String name, long size, String etag, String sha256, boolean acceptRanges) {
 }
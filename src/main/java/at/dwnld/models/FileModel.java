@@ -1,9 +1,18 @@
 package at.dwnld.models;
 
+import javafx.beans.property.DoubleProperty;
+import javafx.beans.property.LongProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleDoubleProperty;
+import javafx.beans.property.SimpleLongProperty;
+import javafx.beans.property.SimpleObjectProperty;
 import java.io.Serial;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.time.LocalDateTime;
 
 public class FileModel  implements Serializable {
@@ -20,6 +29,33 @@ public class FileModel  implements Serializable {
     long downloadedSize;
     Map<String, String> headers;
     String websiteUrl;
+    WriteMode writeMode;
+    String extractionStatus;
+    String etag;
+    String sha256;
+    String linkedTo;
+    transient boolean archived;
+    int segmentCount;
+    SegmentProgress progress;
+    // Read only to carry offsets over from downloads.dat files written before SegmentProgress.
+    ConcurrentHashMap<Integer, Long> segmentOffsets;
+    boolean media;
+    int mediaSegments;
+    int mediaSegmentsDone;
+    boolean delta;
+    // Set only while the engine itself holds the previous copy aside for a delta update.
+    boolean previousMovedAside;
+    boolean streaming;
+    boolean small;
+
+    // Engine threads only write the plain fields and mark the row as changed; the FX thread
+    // copies them into the properties in batches, so only rows bound to a visible cell repaint.
+    private static final Set<FileModel> changed = ConcurrentHashMap.newKeySet();
+    private transient volatile boolean observed;
+    private transient ObjectProperty<FileStatus> statusProperty;
+    private transient LongProperty sizeProperty;
+    private transient LongProperty downloadedSizeProperty;
+    private transient DoubleProperty speedProperty;
 
     public FileModel(String name, String url, String path, LocalDateTime added, long size, LocalDateTime lastTried, FileStatus status, double speed, long downloadedSize, Map<String, String> headers ,String websiteUrl) {
         this.name = name != null ? name : "unknown";
@@ -79,6 +115,7 @@ public class FileModel  implements Serializable {
 
     public void setSize(long size) {
         this.size = size;
+        markChanged();
     }
 
     public LocalDateTime getLastTried() {
@@ -95,6 +132,7 @@ public class FileModel  implements Serializable {
 
     public void setStatus(FileStatus status) {
         this.status = status;
+        markChanged();
     }
 
     public double getSpeed() {
@@ -103,14 +141,237 @@ public class FileModel  implements Serializable {
 
     public void setSpeed(double speed) {
         this.speed = speed;
+        markChanged();
     }
 
     public long getDownloadedSize() {
         return downloadedSize;
     }
 
-    public void setDownloadedSize(int downloadedSize) {
+    public void setDownloadedSize(long downloadedSize) {
         this.downloadedSize = downloadedSize;
+        markChanged();
+    }
+
+    public WriteMode getWriteMode() {
+        return writeMode;
+    }
+
+    public void setWriteMode(WriteMode writeMode) {
+        this.writeMode = writeMode;
+    }
+
+    public String getExtractionStatus() {
+        return extractionStatus;
+    }
+
+    public void setExtractionStatus(String extractionStatus) {
+        this.extractionStatus = extractionStatus;
+    }
+
+    public String getEtag() {
+        return etag;
+    }
+
+    public void setEtag(String etag) {
+        this.etag = etag;
+    }
+
+    public String getSha256() {
+        return sha256;
+    }
+
+    public void setSha256(String sha256) {
+        this.sha256 = sha256;
+    }
+
+    public String getLinkedTo() {
+        return linkedTo;
+    }
+
+    public void setLinkedTo(String linkedTo) {
+        this.linkedTo = linkedTo;
+    }
+
+    public boolean isArchived() {
+        return archived;
+    }
+
+    public void setArchived(boolean archived) {
+        this.archived = archived;
+    }
+
+    public int getSegmentCount() {
+        return segmentCount;
+    }
+
+    public synchronized void setSegmentCount(int segmentCount) {
+        if (segmentCount != this.segmentCount) {
+            progress = null;
+        }
+        this.segmentCount = segmentCount;
+    }
+
+    public long getSegmentStart(int segmentId) {
+        return segmentId * (size / segmentCount);
+    }
+
+    public long getSegmentEnd(int segmentId) {
+        return segmentId == segmentCount - 1 ? size - 1 : getSegmentStart(segmentId + 1) - 1;
+    }
+
+    // Created once the segment layout is known; null before that.
+    public synchronized SegmentProgress getProgress() {
+        if (progress == null && segmentCount > 0) {
+            long[] starts = new long[segmentCount];
+            for (int i = 0; i < segmentCount; i++) {
+                starts[i] = getSegmentStart(i);
+            }
+            progress = new SegmentProgress(starts);
+            if (segmentOffsets != null) {
+                segmentOffsets.forEach((segment, offset) -> {
+                    if (segment < segmentCount) {
+                        progress.set(segment, offset);
+                    }
+                });
+                segmentOffsets = null;
+            }
+        }
+        return progress;
+    }
+
+    public boolean isMedia() {
+        return media;
+    }
+
+    public void setMedia(boolean media) {
+        this.media = media;
+    }
+
+    public int getMediaSegments() {
+        return mediaSegments;
+    }
+
+    public void setMediaSegments(int mediaSegments) {
+        this.mediaSegments = mediaSegments;
+        markChanged();
+    }
+
+    public int getMediaSegmentsDone() {
+        return mediaSegmentsDone;
+    }
+
+    public void setMediaSegmentsDone(int mediaSegmentsDone) {
+        this.mediaSegmentsDone = mediaSegmentsDone;
+        markChanged();
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public void setDelta(boolean delta) {
+        this.delta = delta;
+    }
+
+    public boolean isPreviousMovedAside() {
+        return previousMovedAside;
+    }
+
+    public void setPreviousMovedAside(boolean previousMovedAside) {
+        this.previousMovedAside = previousMovedAside;
+    }
+
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+    public void setStreaming(boolean streaming) {
+        this.streaming = streaming;
+    }
+
+    public boolean isSmall() {
+        return small;
+    }
+
+    public void setSmall(boolean small) {
+        this.small = small;
+    }
+
+    // Bytes available without holes from offset 0, derived from the per-segment offsets.
+    public long getContiguousBytes() {
+        if (status == FileStatus.completed) {
+            return size;
+        }
+        SegmentProgress current = getProgress();
+        if (current == null) {
+            return 0;
+        }
+        for (int i = 0; i < current.segments(); i++) {
+            long offset = current.offset(i);
+            if (offset <= getSegmentEnd(i)) {
+                return offset;
+            }
+        }
+        return size;
+    }
+
+    public ObjectProperty<FileStatus> statusProperty() {
+        observe();
+        return statusProperty;
+    }
+
+    public LongProperty sizeProperty() {
+        observe();
+        return sizeProperty;
+    }
+
+    public LongProperty downloadedSizeProperty() {
+        observe();
+        return downloadedSizeProperty;
+    }
+
+    public DoubleProperty speedProperty() {
+        observe();
+        return speedProperty;
+    }
+
+    private void observe() {
+        if (!observed) {
+            statusProperty = new SimpleObjectProperty<>(this, "status", status);
+            sizeProperty = new SimpleLongProperty(this, "size", size);
+            downloadedSizeProperty = new SimpleLongProperty(this, "downloadedSize", downloadedSize);
+            speedProperty = new SimpleDoubleProperty(this, "speed", speed);
+            observed = true;
+        }
+    }
+
+    private void markChanged() {
+        if (observed) {
+            changed.add(this);
+        }
+    }
+
+    // Must be called on the FX thread.
+    public static boolean flushChanges() {
+        boolean any = false;
+        for (Iterator<FileModel> iterator = changed.iterator(); iterator.hasNext(); ) {
+            FileModel file = iterator.next();
+            iterator.remove();
+            file.statusProperty.set(file.status);
+            file.sizeProperty.set(file.size);
+            file.downloadedSizeProperty.set(file.downloadedSize);
+            file.speedProperty.set(file.speed);
+            any = true;
+        }
+        return any;
+    }
+
+    public synchronized void resetSegments() {
+        segmentCount = 0;
+        progress = null;
+        segmentOffsets = null;
+        mediaSegmentsDone = 0;
     }
 
     public Map<String, String> getHeaders() {
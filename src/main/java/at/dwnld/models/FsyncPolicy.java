@@ -0,0 +1,8 @@
+package at.dwnld.models;
+import java.io.Serializable;
+
+public enum FsyncPolicy implements Serializable {
+    none,
+    periodic,
+    onComplete
+}
@@ -0,0 +1,72 @@
+package at.dwnld.models;
+
+import java.io.Serial;
+import java.io.Serializable;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Progress of one download without locks or boxing. Each offset slot is written only by its
+// segment's worker, so a release store is enough and readers see every slot move forward
+// monotonically; the byte total is striped so parallel segments don't contend on one counter.
+public class SegmentProgress implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+
+    private final long[] starts;
+    private final AtomicLongArray offsets;
+    private final LongAdder total = new LongAdder();
+
+    public SegmentProgress(long[] starts) {
+        this.starts = starts.clone();
+        this.offsets = new AtomicLongArray(this.starts);
+    }
+
+    public int segments() {
+        return starts.length;
+    }
+
+    public long start(int segment) {
+        return starts[segment];
+    }
+
+    public long offset(int segment) {
+        return offsets.getAcquire(segment);
+    }
+
+    // Called from the hot loop after every write.
+    public void advance(int segment, long position, long bytes) {
+        offsets.setRelease(segment, position);
+        total.add(bytes);
+    }
+
+    public void set(int segment, long position) {
+        offsets.setRelease(segment, position);
+    }
+
+    // Bytes that did not come through advance, such as blocks copied from an older local copy.
+    public void add(long bytes) {
+        total.add(bytes);
+    }
+
+    public long total() {
+        return total.sum();
+    }
+
+    // Bytes on disk according to the offsets alone.
+    public long downloaded() {
+        long downloaded = 0;
+        for (int i = 0; i < starts.length; i++) {
+            downloaded += Math.max(0, offsets.getAcquire(i) - starts[i]);
+        }
+        return downloaded;
+    }
+
+    // Resets the running total to the offsets at the start of a session, after recovery may
+    // have moved them back, and returns it.
+    public long recount() {
+        long downloaded = downloaded();
+        total.reset();
+        total.add(downloaded);
+        return downloaded;
+    }
+}
@@ -1,6 +1,8 @@
 package at.dwnld.models;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.List;
 
 public class SettingModel implements Serializable {
     @Serial
@@ -10,6 +12,16 @@ public class SettingModel implements Serializable {
     private String default_path;
     private int max_parallel;
     private boolean is_default_application;
+    private boolean async_engine;
+    private long mmap_threshold;
+    private boolean stream_extract;
+    private boolean write_behind;
+    private boolean direct_io;
+    private FsyncPolicy fsync_policy;
+    private List<BandwidthProfile> profiles;
+    private List<String> source_addresses;
+    private int host_connection_limit;
+    private int segment_count;
 
     private SettingModel(String default_path, int max_parallel, boolean is_default_application) {
         this.default_path = (default_path != null) ? default_path : getDefaultDownloadDirectory();
@@ -42,6 +54,36 @@ public class SettingModel implements Serializable {
     public boolean isDefaultApplication() { return is_default_application; }
     public void setDefaultApplication(boolean is_default_application) { this.is_default_application = is_default_application; }
 
+    public boolean isAsyncEngine() { return async_engine; }
+    public void setAsyncEngine(boolean async_engine) { this.async_engine = async_engine; }
+
+    public long getMmap_threshold() { return mmap_threshold; }
+    public void setMmap_threshold(long mmap_threshold) { this.mmap_threshold = mmap_threshold; }
+
+    public boolean isStreamExtract() { return stream_extract; }
+    public void setStreamExtract(boolean stream_extract) { this.stream_extract = stream_extract; }
+
+    public boolean isWriteBehind() { return write_behind; }
+    public void setWriteBehind(boolean write_behind) { this.write_behind = write_behind; }
+
+    public boolean isDirectIo() { return direct_io; }
+    public void setDirectIo(boolean direct_io) { this.direct_io = direct_io; }
+
+    public FsyncPolicy getFsync_policy() { return fsync_policy != null ? fsync_policy : FsyncPolicy.onComplete; }
+    public void setFsync_policy(FsyncPolicy fsync_policy) { this.fsync_policy = fsync_policy; }
+
+    public List<BandwidthProfile> getProfiles() { return profiles != null ? profiles : List.of(); }
+    public void setProfiles(List<BandwidthProfile> profiles) { this.profiles = new ArrayList<>(profiles); }
+
+    public List<String> getSourceAddresses() { return source_addresses != null ? source_addresses : List.of(); }
+    public void setSourceAddresses(List<String> source_addresses) { this.source_addresses = new ArrayList<>(source_addresses); }
+
+    public int getHostConnectionLimit() { return host_connection_limit > 0 ? host_connection_limit : 8; }
+    public void setHostConnectionLimit(int host_connection_limit) { this.host_connection_limit = host_connection_limit; }
+
+    public int getSegmentCount() { return segment_count > 0 ? segment_count : 4; }
+    public void setSegmentCount(int segment_count) { this.segment_count = segment_count; }
+
     public static String getDefaultDownloadDirectory() {
         String userHome = System.getProperty("user.home");
         if (userHome == null) return System.getProperty("java.io.tmpdir");
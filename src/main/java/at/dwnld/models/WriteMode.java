@@ -0,0 +1,7 @@
+package at.dwnld.models;
+import java.io.Serializable;
+
+public enum WriteMode implements Serializable {
+    standard,
+    mapped
+}
@@ -0,0 +1,222 @@
+package at.dwnld.services;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+public class ArchiveExtractor {
+
+    public enum Format { zip, tar, tarGz }
+
+    private final Format format;
+    private final Path destination;
+    private final Consumer<String> onStatus;
+    private int entries;
+    // Files written and directories created so far, so a stopped extraction can be undone.
+    private final List<Path> created = new ArrayList<>();
+
+    public ArchiveExtractor(Format format, Path destination, Consumer<String> onStatus) {
+        this.format = format;
+        this.destination = destination.toAbsolutePath().normalize();
+        this.onStatus = onStatus;
+    }
+
+    public static Format detect(String fileName) {
+        String name = fileName.toLowerCase();
+        if (name.endsWith(".zip")) return Format.zip;
+        if (name.endsWith(".tar.gz") || name.endsWith(".tgz")) return Format.tarGz;
+        if (name.endsWith(".tar")) return Format.tar;
+        return null;
+    }
+
+    public static Path destinationFor(String filePath) {
+        String name = filePath;
+        for (String extension : new String[]{".tar.gz", ".tgz", ".tar", ".zip"}) {
+            if (name.toLowerCase().endsWith(extension)) {
+                name = name.substring(0, name.length() - extension.length());
+                break;
+            }
+        }
+        return Path.of(name);
+    }
+
+    // Extracts on a daemon thread once the previous run for the same file has ended. When the
+    // download was stopped or the run interrupted rather than the archive being broken, the
+    // partial result is removed and the status cleared, so a resumed download can start over.
+    public Thread start(InputStream in, Thread previous, BooleanSupplier stopped) {
+        Thread thread = new Thread(() -> {
+            try (in) {
+                // The previous run may still be removing its output, so it is waited for even
+                // when this run is replaced in the meantime.
+                boolean interrupted = false;
+                while (previous != null && previous.isAlive()) {
+                    try {
+                        previous.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                extract(in);
+            } catch (IOException e) {
+                if (stopped.getAsBoolean() || Thread.currentThread().isInterrupted()) {
+                    discard();
+                    onStatus.accept(null);
+                } else {
+                    onStatus.accept("Extraction failed: " + e.getMessage());
+                }
+            }
+        }, "dwnld-extract");
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    public void extract(InputStream in) throws IOException {
+        createDirectories(destination);
+        switch (format) {
+            case zip -> extractZip(in);
+            case tar -> extractTar(in);
+            case tarGz -> extractTar(new GZIPInputStream(in, 64 * 1024));
+        }
+        onStatus.accept("Extracted " + entries + " entries");
+    }
+
+    private void extractZip(InputStream in) throws IOException {
+        ZipInputStream zip = new ZipInputStream(in);
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            Path target = resolve(entry.getName());
+            if (entry.isDirectory()) {
+                createDirectories(target);
+            } else {
+                writeEntry(zip, target, -1);
+            }
+            zip.closeEntry();
+        }
+    }
+
+    private void extractTar(InputStream in) throws IOException {
+        DataInputStream tar = new DataInputStream(in);
+        byte[] header = new byte[512];
+        String longName = null;
+
+        while (true) {
+            tar.readFully(header);
+            if (isZeroBlock(header)) {
+                return;
+            }
+
+            String name = longName != null ? longName : tarName(header);
+            longName = null;
+            long size = parseOctal(header, 124, 12);
+            char type = (char) header[156];
+            long padding = (512 - size % 512) % 512;
+
+            if (type == 'L') {
+                byte[] nameBytes = new byte[(int) size];
+                tar.readFully(nameBytes);
+                longName = trimNul(nameBytes, 0, nameBytes.length);
+            } else if (type == '5') {
+                createDirectories(resolve(name));
+            } else if (type == '0' || type == '\0') {
+                writeEntry(tar, resolve(name), size);
+            } else {
+                tar.skipNBytes(size);
+            }
+            tar.skipNBytes(padding);
+        }
+    }
+
+    private void writeEntry(InputStream in, Path target, long size) throws IOException {
+        createDirectories(target.getParent());
+        created.add(target);
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(target))) {
+            byte[] buffer = new byte[8192];
+            long remaining = size;
+            int bytesRead;
+            while ((size < 0 || remaining > 0)
+                    && (bytesRead = in.read(buffer, 0, size < 0 ? buffer.length : (int) Math.min(buffer.length, remaining))) != -1) {
+                out.write(buffer, 0, bytesRead);
+                remaining -= bytesRead;
+            }
+            if (size > 0 && remaining > 0) {
+                throw new EOFException("Truncated entry " + target.getFileName());
+            }
+        }
+        entries++;
+        onStatus.accept("Extracting (" + entries + " entries)");
+    }
+
+    private void createDirectories(Path directory) throws IOException {
+        List<Path> missing = new ArrayList<>();
+        for (Path parent = directory; parent != null && !Files.exists(parent); parent = parent.getParent()) {
+            missing.add(0, parent);
+        }
+        Files.createDirectories(directory);
+        created.addAll(missing);
+    }
+
+    private void discard() {
+        for (int i = created.size() - 1; i >= 0; i--) {
+            try {
+                Files.deleteIfExists(created.get(i));
+            } catch (IOException e) {
+                // A directory that meanwhile holds files of someone else's is left in place.
+            }
+        }
+        created.clear();
+        entries = 0;
+    }
+
+    private Path resolve(String name) throws IOException {
+        Path target = destination.resolve(name).normalize();
+        if (!target.startsWith(destination)) {
+            throw new IOException("Entry is outside of the target directory: " + name);
+        }
+        return target;
+    }
+
+    private static String tarName(byte[] header) {
+        String name = trimNul(header, 0, 100);
+        String magic = trimNul(header, 257, 6);
+        if (magic.startsWith("ustar")) {
+            String prefix = trimNul(header, 345, 155);
+            if (!prefix.isEmpty()) {
+                return prefix + "/" + name;
+            }
+        }
+        return name;
+    }
+
+    private static String trimNul(byte[] bytes, int offset, int length) {
+        int end = offset;
+        while (end < offset + length && bytes[end] != 0) {
+            end++;
+        }
+        return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private static long parseOctal(byte[] bytes, int offset, int length) {
+        String value = trimNul(bytes, offset, length).trim();
+        return value.isEmpty() ? 0 : Long.parseLong(value, 8);
+    }
+
+    private static boolean isZeroBlock(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+}
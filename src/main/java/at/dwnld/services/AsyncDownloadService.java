@@ -0,0 +1,209 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FileModel;
+import at.dwnld.models.FileStatus;
+import at.dwnld.models.SegmentProgress;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.function.LongConsumer;
+
+public class AsyncDownloadService {
+
+    private static final Set<String> RESTRICTED_HEADERS = Set.of("connection", "content-length", "expect", "host", "upgrade");
+    private static final ExecutorService executor = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "dwnld-async");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private static final HttpClient client = HttpClient.newBuilder()
+            .executor(executor)
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .connectTimeout(Duration.ofSeconds(30))
+            .build();
+
+    public CompletableFuture<Long> downloadSegment(FileModel file, long start, long end, SegmentProgress progress, int segmentId, LongConsumer onProgress) {
+        HttpRequest.Builder requestBuilder = HttpRequest.newBuilder(URI.create(file.getUrl()))
+                .timeout(Duration.ofSeconds(30))
+                .GET();
+        if (file.getHeaders() != null) {
+            file.getHeaders().forEach((name, value) -> {
+                if (!RESTRICTED_HEADERS.contains(name.toLowerCase())) {
+                    requestBuilder.header(name, value);
+                }
+            });
+        }
+        if (end != 0) {
+            requestBuilder.header("Range", "bytes=" + start + "-" + end);
+        }
+
+        AsynchronousFileChannel channel;
+        try {
+            channel = AsynchronousFileChannel.open(Path.of(file.getPath()),
+                    Set.of(StandardOpenOption.WRITE, StandardOpenOption.CREATE), executor);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+
+        CompletableFuture<HttpResponse<Long>> exchange = client.sendAsync(requestBuilder.build(), responseInfo -> {
+                    if (responseInfo.statusCode() / 100 != 2 || (end != 0 && !DownloadService.rangeMatches(responseInfo.statusCode(),
+                            responseInfo.headers().firstValue("Content-Range").orElse(null), start, end, file.getSize()))) {
+                        return HttpResponse.BodySubscribers.replacing(-1L);
+                    }
+                    return new FileChannelSubscriber(file, channel, start, progress, segmentId, onProgress);
+                });
+        // Only the future returned by sendAsync aborts the exchange when cancelled.
+        CompletableFuture<Long> result = exchange
+                .thenApply(response -> {
+                    if (response.body() < 0) {
+                        throw new CompletionException(new IOException("Unexpected response code " + response.statusCode()));
+                    }
+                    return response.body();
+                })
+                .whenComplete((written, error) -> {
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                });
+        result.whenComplete((written, error) -> {
+            if (error instanceof CancellationException) {
+                exchange.cancel(true);
+            }
+        });
+        return result;
+    }
+
+    private static class FileChannelSubscriber implements HttpResponse.BodySubscriber<Long> {
+
+        private final FileModel file;
+        private final AsynchronousFileChannel channel;
+        private final SegmentProgress progress;
+        private final int segmentId;
+        private final LongConsumer onProgress;
+        private final CompletableFuture<Long> result = new CompletableFuture<>();
+        private final long start;
+        private Flow.Subscription subscription;
+        private long position;
+        private boolean writing;
+        private boolean upstreamDone;
+
+        FileChannelSubscriber(FileModel file, AsynchronousFileChannel channel, long start, SegmentProgress progress, int segmentId, LongConsumer onProgress) {
+            this.file = file;
+            this.channel = channel;
+            this.start = start;
+            this.position = start;
+            this.progress = progress;
+            this.segmentId = segmentId;
+            this.onProgress = onProgress;
+        }
+
+        @Override
+        public CompletionStage<Long> getBody() {
+            return result;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> buffers) {
+            if (file.getStatus() == FileStatus.paused || file.getStatus() == FileStatus.hold) {
+                subscription.cancel();
+                result.complete(position - start);
+                return;
+            }
+            synchronized (this) {
+                writing = true;
+            }
+            writeNext(buffers, 0);
+        }
+
+        // Only one item is requested at a time, and only once its buffers are on disk,
+        // so a slow disk throttles the socket instead of queueing buffers in memory.
+        private void writeNext(List<ByteBuffer> buffers, int index) {
+            if (index == buffers.size()) {
+                boolean finished;
+                synchronized (this) {
+                    writing = false;
+                    finished = upstreamDone;
+                }
+                if (finished) {
+                    result.complete(position - start);
+                } else {
+                    requestNext(buffers);
+                }
+                return;
+            }
+
+            ByteBuffer buffer = buffers.get(index);
+            if (!buffer.hasRemaining()) {
+                writeNext(buffers, index + 1);
+                return;
+            }
+
+            channel.write(buffer, position, null, new CompletionHandler<Integer, Void>() {
+                @Override
+                public void completed(Integer written, Void attachment) {
+                    position += written;
+                    progress.advance(segmentId, position, written);
+                    onProgress.accept(position);
+                    writeNext(buffers, buffer.hasRemaining() ? index : index + 1);
+                }
+
+                @Override
+                public void failed(Throwable error, Void attachment) {
+                    subscription.cancel();
+                    result.completeExceptionally(error);
+                }
+            });
+        }
+
+        private void requestNext(List<ByteBuffer> buffers) {
+            long bytes = 0;
+            for (ByteBuffer buffer : buffers) {
+                bytes += buffer.limit();
+            }
+            long waitNanos = RateLimiter.getInstance().reserve(bytes);
+            if (waitNanos > 0) {
+                CompletableFuture.delayedExecutor(waitNanos, TimeUnit.NANOSECONDS, executor)
+                        .execute(() -> subscription.request(1));
+            } else {
+                subscription.request(1);
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            boolean finished;
+            synchronized (this) {
+                upstreamDone = true;
+                finished = !writing;
+            }
+            if (finished) {
+                result.complete(position - start);
+            }
+        }
+    }
+}
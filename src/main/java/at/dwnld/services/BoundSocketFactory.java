@@ -0,0 +1,43 @@
+package at.dwnld.services;
+
+import javax.net.SocketFactory;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+
+class BoundSocketFactory extends SocketFactory {
+
+    private final InetAddress localAddress;
+
+    BoundSocketFactory(InetAddress localAddress) {
+        this.localAddress = localAddress;
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        Socket socket = new Socket();
+        socket.bind(new InetSocketAddress(localAddress, 0));
+        return socket;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return new Socket(host, port, localAddress, 0);
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return new Socket(host, port, localAddress, 0);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return new Socket(host, port, localAddress, 0);
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort) throws IOException {
+        return new Socket(address, port, this.localAddress, 0);
+    }
+}
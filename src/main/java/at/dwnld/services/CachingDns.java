@@ -0,0 +1,46 @@
+package at.dwnld.services;
+
+import okhttp3.Dns;
+import org.jetbrains.annotations.NotNull;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Engine-wide resolver cache shared by every client derived from the engine client.
+// Failed lookups are cached for a shorter time so a typo in a bulk queue does not hit
+// the system resolver once per file.
+class CachingDns implements Dns {
+
+    private static final long TTL_MILLIS = 5 * 60_000;
+    private static final long NEGATIVE_TTL_MILLIS = 15_000;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private record Entry(List<InetAddress> addresses, UnknownHostException failure, long expiresAt) {}
+
+    @NotNull
+    @Override
+    public List<InetAddress> lookup(@NotNull String hostname) throws UnknownHostException {
+        Entry entry = entries.get(hostname);
+        if (entry == null || entry.expiresAt() < System.currentTimeMillis()) {
+            entry = resolve(hostname);
+            entries.put(hostname, entry);
+        }
+        if (entry.failure() != null) {
+            UnknownHostException failure = new UnknownHostException(entry.failure().getMessage());
+            failure.initCause(entry.failure());
+            throw failure;
+        }
+        return entry.addresses();
+    }
+
+    private static Entry resolve(String hostname) {
+        try {
+            List<InetAddress> addresses = Dns.SYSTEM.lookup(hostname);
+            return new Entry(List.copyOf(addresses), null, System.currentTimeMillis() + TTL_MILLIS);
+        } catch (UnknownHostException e) {
+            return new Entry(null, e, System.currentTimeMillis() + NEGATIVE_TTL_MILLIS);
+        }
+    }
+}
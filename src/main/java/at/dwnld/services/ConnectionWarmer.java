@@ -0,0 +1,67 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FileModel;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+// OkHttp has no API to open a pooled connection without a request, so a HEAD to the host
+// of each queued download resolves DNS, completes the TCP/TLS handshake and leaves a
+// keep-alive connection in the pool for the first segment to pick up.
+class ConnectionWarmer {
+
+    private static final int LOOKAHEAD = 4;
+    private static final long REWARM_MILLIS = 30_000;
+
+    private final OkHttpClient client;
+    private final ConcurrentHashMap<String, Long> warmedAt = new ConcurrentHashMap<>();
+
+    ConnectionWarmer(OkHttpClient client) {
+        this.client = client;
+    }
+
+    void warm(List<FileModel> queued) {
+        int warmed = 0;
+        long now = System.currentTimeMillis();
+        for (FileModel file : queued) {
+            if (warmed >= LOOKAHEAD) {
+                break;
+            }
+            HttpUrl url = HttpUrl.parse(file.getUrl());
+            if (url == null) {
+                continue;
+            }
+            String origin = url.scheme() + "://" + url.host() + ":" + url.port();
+            Long last = warmedAt.get(origin);
+            if (last != null && now - last < REWARM_MILLIS) {
+                continue;
+            }
+            warmedAt.put(origin, now);
+            warmed++;
+
+            Request.Builder requestBuilder = new Request.Builder().url(url).head()
+                    .tag(NetworkTraces.Tag.class, new NetworkTraces.Tag(file.getPath(), "prewarm"));
+            if (file.getHeaders() != null) {
+                file.getHeaders().forEach(requestBuilder::addHeader);
+            }
+            client.newCall(requestBuilder.build()).enqueue(new Callback() {
+                @Override
+                public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                    warmedAt.remove(origin);
+                }
+
+                @Override
+                public void onResponse(@NotNull Call call, @NotNull Response response) {
+                    response.close();
+                }
+            });
+        }
+    }
+}
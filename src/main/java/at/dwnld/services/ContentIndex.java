@@ -0,0 +1,152 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FileModel;
+import java.io.*;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class ContentIndex implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private static volatile File store = new File("content_index.dat");
+    private static ContentIndex instance;
+    private static final ExecutorService hashExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dwnld-hash");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final Map<String, String> byResource = new HashMap<>();
+    private final Map<String, String> byHash = new HashMap<>();
+
+    private ContentIndex() {
+    }
+
+    public static synchronized ContentIndex getInstance() {
+        if (instance == null) {
+            File file = store;
+            if (file.exists()) {
+                try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+                    instance = (ContentIndex) ois.readObject();
+                } catch (IOException | ClassNotFoundException e) {
+                    instance = new ContentIndex();
+                }
+            } else {
+                instance = new ContentIndex();
+            }
+        }
+        return instance;
+    }
+
+    // Lets the load scenarios keep the index out of the working directory.
+    static synchronized void useStore(File file) {
+        store = file;
+        instance = null;
+    }
+
+    public static String resourceKey(String finalUrl, String etag, long size) {
+        if (finalUrl == null || etag == null || size <= 0) {
+            return null;
+        }
+        return finalUrl + "|" + etag + "|" + size;
+    }
+
+    // Entries are only trusted while the indexed file is still on disk with the expected size.
+    public synchronized Path findCompleted(String resourceKey, String sha256, long size) {
+        Path byHashPath = sha256 != null ? existing(byHash.get(sha256), size) : null;
+        if (byHashPath != null) {
+            return byHashPath;
+        }
+        return resourceKey != null ? existing(byResource.get(resourceKey), size) : null;
+    }
+
+    private static Path existing(String path, long size) {
+        if (path == null) {
+            return null;
+        }
+        File file = new File(path);
+        if (!file.isFile() || (size > 0 && file.length() != size)) {
+            return null;
+        }
+        return file.toPath();
+    }
+
+    public void recordCompleted(FileModel file) {
+        hashExecutor.submit(() -> {
+            try {
+                String sha256 = hash(Path.of(file.getPath()));
+                file.setSha256(sha256);
+                synchronized (this) {
+                    String key = resourceKey(file.getUrl(), file.getEtag(), file.getSize());
+                    if (key != null) {
+                        byResource.put(key, file.getPath());
+                    }
+                    byHash.put(sha256, file.getPath());
+                    save();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    public static void linkOrCopy(Path source, Path target) throws IOException {
+        if (source.toAbsolutePath().equals(target.toAbsolutePath())) {
+            return;
+        }
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    public static String sha256FromHeaders(String digest, String reprDigest, String checksumHeader) {
+        if (checksumHeader != null && checksumHeader.matches("[0-9a-fA-F]{64}")) {
+            return checksumHeader.toLowerCase();
+        }
+        for (String header : new String[]{reprDigest, digest}) {
+            if (header == null) continue;
+            for (String part : header.split(",")) {
+                String value = part.trim();
+                int separator = value.indexOf('=');
+                if (separator > 0 && value.substring(0, separator).equalsIgnoreCase("sha-256")) {
+                    String encoded = value.substring(separator + 1).replace(":", "").trim();
+                    try {
+                        return HexFormat.of().formatHex(Base64.getDecoder().decode(encoded));
+                    } catch (IllegalArgumentException ignored) {
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    static String hash(Path path) throws IOException {
+        try (DigestInputStream in = new DigestInputStream(
+                new BufferedInputStream(Files.newInputStream(path), 64 * 1024), MessageDigest.getInstance("SHA-256"))) {
+            in.transferTo(OutputStream.nullOutputStream());
+            return HexFormat.of().formatHex(in.getMessageDigest().digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void save() {
+        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(store))) {
+            oos.writeObject(this);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FileModel;
+import at.dwnld.models.FileStatus;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+
+// Reads a download from offset 0 as its contiguous prefix grows, the way StreamServer serves
+// it, so an archive arriving in order can be extracted before it completes. The stream ends
+// with the completed file; a download that stops on the way ends it with an IOException.
+class ContiguousInputStream extends InputStream {
+
+    private static final long POLL_MILLIS = 50;
+
+    private final FileModel file;
+    private RandomAccessFile raf;
+    private long position;
+
+    ContiguousInputStream(FileModel file) {
+        this.file = file;
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] single = new byte[1];
+        return read(single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+        if (length == 0) {
+            return 0;
+        }
+        while (true) {
+            // The status is read first, so a completed download is never mistaken for a short one.
+            FileStatus status = file.getStatus();
+            long available = file.getContiguousBytes();
+            if (position < available) {
+                if (raf == null) {
+                    raf = new RandomAccessFile(file.getPath(), "r");
+                }
+                raf.seek(position);
+                int count = raf.read(buffer, offset, (int) Math.min(length, available - position));
+                if (count > 0) {
+                    position += count;
+                }
+                return count;
+            }
+            if (status == FileStatus.completed) {
+                return -1;
+            }
+            if (status != FileStatus.inProgress) {
+                throw new IOException("Download stopped at byte " + position);
+            }
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for byte " + position);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (raf != null) {
+            raf.close();
+        }
+    }
+}
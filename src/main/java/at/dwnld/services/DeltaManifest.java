@@ -0,0 +1,191 @@
+package at.dwnld.services;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+// Block checksum manifest published beside a file as <url>.dwsync, modelled on zsync:
+// a short text header followed by a rolling weak checksum and a truncated SHA-256 per block.
+//
+//   dwnld-delta 1
+//   Length: <bytes>
+//   Blocksize: <bytes>
+//   SHA-256: <hex of the whole file>
+//   <blank line>
+//   <per block: 4-byte weak checksum, 16-byte strong checksum>
+class DeltaManifest {
+
+    static final String SUFFIX = ".dwsync";
+    // Where the previous copy waits while a delta update runs; never a name a user would pick.
+    static final String PREVIOUS_SUFFIX = ".dwsync-prev";
+    static final int STRONG_LENGTH = 16;
+    private static final int RECORD_LENGTH = 4 + STRONG_LENGTH;
+    private static final int MAX_BLOCK_SIZE = 64 * 1024 * 1024;
+    private static final long MAX_BLOCKS = 4L * 1024 * 1024;
+
+    final long length;
+    final int blockSize;
+    final String sha256;
+    final int[] weak;
+    final byte[][] strong;
+
+    DeltaManifest(long length, int blockSize, String sha256, int[] weak, byte[][] strong) {
+        this.length = length;
+        this.blockSize = blockSize;
+        this.sha256 = sha256;
+        this.weak = weak;
+        this.strong = strong;
+    }
+
+    int blockCount() {
+        return weak.length;
+    }
+
+    long blockStart(int block) {
+        return (long) block * blockSize;
+    }
+
+    long blockEnd(int block) {
+        return Math.min(blockStart(block) + blockSize, length) - 1;
+    }
+
+    // The manifest comes from the network, so the header is checked before it sizes anything:
+    // the block count is bounded and, when the body length is known, must fit in it.
+    static DeltaManifest parse(InputStream input, long available) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        if (!"dwnld-delta 1".equals(readLine(in))) {
+            throw new IOException("Not a delta manifest");
+        }
+        long length = -1;
+        int blockSize = -1;
+        String sha256 = null;
+        String line;
+        while (!(line = readLine(in)).isEmpty()) {
+            int separator = line.indexOf(':');
+            if (separator < 0) continue;
+            String value = line.substring(separator + 1).trim();
+            switch (line.substring(0, separator)) {
+                case "Length" -> length = Long.parseLong(value);
+                case "Blocksize" -> blockSize = Integer.parseInt(value);
+                case "SHA-256" -> sha256 = value.toLowerCase();
+                default -> { }
+            }
+        }
+        if (length < 0 || blockSize <= 0 || sha256 == null) {
+            throw new IOException("Incomplete delta manifest header");
+        }
+
+        if (blockSize > MAX_BLOCK_SIZE) {
+            throw new IOException("Delta manifest block size too large: " + blockSize);
+        }
+        long blockCount = length / blockSize + (length % blockSize == 0 ? 0 : 1);
+        if (blockCount > MAX_BLOCKS) {
+            throw new IOException("Delta manifest has too many blocks: " + blockCount);
+        }
+        if (available >= 0 && blockCount * RECORD_LENGTH > available) {
+            throw new IOException("Delta manifest is shorter than its header claims");
+        }
+
+        // Strong checksums are allocated as they arrive, so a truncated body fails early.
+        int blocks = (int) blockCount;
+        int[] weak = new int[blocks];
+        byte[][] strong = new byte[blocks][];
+        for (int i = 0; i < blocks; i++) {
+            weak[i] = in.readInt();
+            strong[i] = new byte[STRONG_LENGTH];
+            in.readFully(strong[i]);
+        }
+        return new DeltaManifest(length, blockSize, sha256, weak, strong);
+    }
+
+    // For publishers: builds the manifest of a finished file.
+    static DeltaManifest create(Path file, int blockSize) throws IOException {
+        long length = Files.size(file);
+        int blocks = (int) ((length + blockSize - 1) / blockSize);
+        int[] weak = new int[blocks];
+        byte[][] strong = new byte[blocks][];
+        byte[] block = new byte[blockSize];
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1024 * 1024)) {
+            for (int i = 0; i < blocks; i++) {
+                int read = in.readNBytes(block, 0, blockSize);
+                weak[i] = RollingChecksum.of(block, 0, read);
+                strong[i] = strongChecksum(block, 0, read);
+            }
+        }
+        return new DeltaManifest(length, blockSize, ContentIndex.hash(file), weak, strong);
+    }
+
+    void write(OutputStream output) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.write(("dwnld-delta 1\nLength: " + length + "\nBlocksize: " + blockSize
+                + "\nSHA-256: " + sha256 + "\n\n").getBytes(StandardCharsets.US_ASCII));
+        for (int i = 0; i < weak.length; i++) {
+            out.writeInt(weak[i]);
+            out.write(strong[i]);
+        }
+        out.flush();
+    }
+
+    static byte[] strongChecksum(byte[] data, int offset, int length) {
+        return strongChecksum(ByteBuffer.wrap(data, offset, length));
+    }
+
+    static byte[] strongChecksum(ByteBuffer data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data);
+            return Arrays.copyOf(digest.digest(), STRONG_LENGTH);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String readLine(DataInputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) != -1 && c != '\n') {
+            if (c != '\r') line.append((char) c);
+        }
+        if (c == -1 && line.isEmpty()) {
+            throw new EOFException("Truncated delta manifest");
+        }
+        return line.toString();
+    }
+
+    // rsync's rolling checksum: both halves are sums modulo 2^16, so sliding the window by
+    // one byte is constant time.
+    static final class RollingChecksum {
+        private final int window;
+        private int a;
+        private int b;
+
+        RollingChecksum(ByteBuffer data, int offset, int window) {
+            this.window = window;
+            for (int i = 0; i < window; i++) {
+                int x = data.get(offset + i) & 0xff;
+                a += x;
+                b += (window - i) * x;
+            }
+            a &= 0xffff;
+            b &= 0xffff;
+        }
+
+        static int of(byte[] data, int offset, int length) {
+            return new RollingChecksum(ByteBuffer.wrap(data), offset, length).value();
+        }
+
+        void roll(byte out, byte in) {
+            a = (a - (out & 0xff) + (in & 0xff)) & 0xffff;
+            b = (b - window * (out & 0xff) + a) & 0xffff;
+        }
+
+        int value() {
+            return a | (b << 16);
+        }
+    }
+}
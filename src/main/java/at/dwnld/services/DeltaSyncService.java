@@ -0,0 +1,171 @@
+package at.dwnld.services;
+
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+
+// Finds which blocks of a new file already exist somewhere in the previous local copy and
+// plans Range requests for the rest. The old copy is scanned in parallel regions, each
+// mapped read-only with one block of overlap so matches across region borders are found.
+class DeltaSyncService {
+
+    private static final long MIN_REGION_SIZE = 4L * 1024 * 1024;
+    private static final long MAX_REGION_SIZE = 256L * 1024 * 1024;
+    private static final long MERGE_GAP = 64 * 1024;
+
+    private final OkHttpClient client;
+
+    DeltaSyncService(OkHttpClient client) {
+        this.client = client;
+    }
+
+    // The suffix goes on the path and the query is kept, so signed URLs still authorise the request.
+    DeltaManifest fetchManifest(String url, Map<String, String> headers) {
+        HttpUrl fileUrl = HttpUrl.parse(url);
+        if (fileUrl == null) {
+            return null;
+        }
+        HttpUrl manifestUrl = fileUrl.newBuilder().encodedPath(fileUrl.encodedPath() + DeltaManifest.SUFFIX).build();
+        Request.Builder requestBuilder = new Request.Builder().url(manifestUrl);
+        if (headers != null) {
+            headers.forEach(requestBuilder::addHeader);
+        }
+        try (Response response = client.newCall(requestBuilder.build()).execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                return null;
+            }
+            return DeltaManifest.parse(response.body().byteStream(), response.body().contentLength());
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    // Maps each block of the new file to an offset in the old copy where identical bytes live.
+    Map<Integer, Long> scan(DeltaManifest manifest, Path previous) throws IOException {
+        Map<Integer, List<Integer>> byWeak = new HashMap<>();
+        int fullBlocks = (int) (manifest.length / manifest.blockSize);
+        for (int i = 0; i < fullBlocks; i++) {
+            byWeak.computeIfAbsent(manifest.weak[i], key -> new ArrayList<>()).add(i);
+        }
+
+        ConcurrentHashMap<Integer, Long> matches = new ConcurrentHashMap<>();
+        try (FileChannel channel = FileChannel.open(previous, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < manifest.blockSize || byWeak.isEmpty()) {
+                return matches;
+            }
+
+            int threads = Runtime.getRuntime().availableProcessors();
+            long regionSize = Math.clamp(size / threads, MIN_REGION_SIZE, MAX_REGION_SIZE);
+            ExecutorService scanners = Executors.newFixedThreadPool(threads);
+            try {
+                List<Future<?>> regions = new ArrayList<>();
+                for (long regionStart = 0; regionStart <= size - manifest.blockSize; regionStart += regionSize) {
+                    long start = regionStart;
+                    regions.add(scanners.submit(() -> {
+                        scanRegion(channel, start, Math.min(start + regionSize, size), size, manifest, byWeak, matches);
+                        return null;
+                    }));
+                }
+                for (Future<?> region : regions) {
+                    region.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while scanning " + previous, e);
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+            } finally {
+                scanners.shutdownNow();
+            }
+        }
+        return matches;
+    }
+
+    private static void scanRegion(FileChannel channel, long regionStart, long regionEnd, long size, DeltaManifest manifest,
+                                   Map<Integer, List<Integer>> byWeak, Map<Integer, Long> matches) throws IOException {
+        int blockSize = manifest.blockSize;
+        long mapEnd = Math.min(size, regionEnd + blockSize - 1);
+        MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, regionStart, mapEnd - regionStart);
+
+        int length = data.capacity();
+        int lastStart = (int) Math.min(regionEnd - regionStart - 1, length - blockSize);
+        int position = 0;
+        DeltaManifest.RollingChecksum checksum = new DeltaManifest.RollingChecksum(data, 0, blockSize);
+        while (position <= lastStart) {
+            boolean matched = false;
+            List<Integer> candidates = byWeak.get(checksum.value());
+            if (candidates != null) {
+                byte[] strong = DeltaManifest.strongChecksum(data.slice(position, blockSize));
+                for (int block : candidates) {
+                    if (Arrays.equals(strong, manifest.strong[block])) {
+                        matches.putIfAbsent(block, regionStart + position);
+                        matched = true;
+                    }
+                }
+            }
+
+            if (matched && position + blockSize <= lastStart) {
+                position += blockSize;
+                checksum = new DeltaManifest.RollingChecksum(data, position, blockSize);
+            } else if (position + blockSize < length) {
+                checksum.roll(data.get(position), data.get(position + blockSize));
+                position++;
+            } else {
+                break;
+            }
+        }
+    }
+
+    // Copies matched blocks from the old copy into place and returns the bytes reused.
+    long copyMatches(DeltaManifest manifest, Map<Integer, Long> matches, Path previous, Path target) throws IOException {
+        long reused = 0;
+        try (FileChannel source = FileChannel.open(previous, StandardOpenOption.READ);
+             FileChannel destination = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.CREATE)) {
+            for (Map.Entry<Integer, Long> match : new TreeMap<>(matches).entrySet()) {
+                long targetPosition = manifest.blockStart(match.getKey());
+                long remaining = manifest.blockSize;
+                long sourcePosition = match.getValue();
+                while (remaining > 0) {
+                    long copied = source.transferTo(sourcePosition, remaining, destination.position(targetPosition));
+                    if (copied <= 0) {
+                        throw new IOException("Short read from " + previous);
+                    }
+                    sourcePosition += copied;
+                    targetPosition += copied;
+                    remaining -= copied;
+                }
+                reused += manifest.blockSize;
+            }
+        }
+        return reused;
+    }
+
+    // Runs of missing blocks become one range each; runs separated by a small gap of matched
+    // blocks are merged, since re-fetching the gap is cheaper than another request.
+    List<long[]> missingRanges(DeltaManifest manifest, Map<Integer, Long> matches) {
+        List<long[]> ranges = new ArrayList<>();
+        for (int block = 0; block < manifest.blockCount(); block++) {
+            if (matches.containsKey(block)) {
+                continue;
+            }
+            long start = manifest.blockStart(block);
+            long end = manifest.blockEnd(block);
+            long[] last = ranges.isEmpty() ? null : ranges.getLast();
+            if (last != null && start - last[1] - 1 <= MERGE_GAP) {
+                last[1] = end;
+            } else {
+                ranges.add(new long[]{start, end});
+            }
+        }
+        return ranges;
+    }
+}
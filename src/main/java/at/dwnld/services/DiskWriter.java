@@ -0,0 +1,250 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FsyncPolicy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+public class DiskWriter {
+
+    private static final int QUEUE_CAPACITY = 128;
+    private static final int MAX_COALESCED_BYTES = 4 * 1024 * 1024;
+    private static final long PERIODIC_FSYNC_NANOS = 5_000_000_000L;
+    private static final Map<Path, DiskWriter> writers = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final FsyncPolicy fsyncPolicy;
+    private final FileChannel channel;
+    private final FileChannel directChannel;
+    private final int blockSize;
+    private final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread thread;
+    private final Object enqueueLock = new Object();
+    private int references;
+    private long enqueuedSequence;
+    private long writtenSequence;
+    private volatile IOException failure;
+
+    private record Chunk(long position, byte[] data, long sequence) {}
+
+    // Queued by release behind the last write, so the writer stops as soon as it has drained.
+    private static final Chunk CLOSE = new Chunk(-1, new byte[0], 0);
+
+    private DiskWriter(Path path, FsyncPolicy fsyncPolicy, boolean directIo) throws IOException {
+        this.path = path;
+        this.fsyncPolicy = fsyncPolicy != null ? fsyncPolicy : FsyncPolicy.none;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileChannel direct = null;
+        int block = 0;
+        if (directIo) {
+            try {
+                block = (int) Files.getFileStore(path).getBlockSize();
+                direct = FileChannel.open(path, StandardOpenOption.WRITE, com.sun.nio.file.ExtendedOpenOption.DIRECT);
+            } catch (IOException | UnsupportedOperationException e) {
+                direct = null;
+            }
+        }
+        this.directChannel = direct;
+        this.blockSize = block;
+        this.thread = new Thread(this::run, "dwnld-disk-writer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public static DiskWriter acquire(Path path, FsyncPolicy fsyncPolicy, boolean directIo) throws IOException {
+        Path key = path.toAbsolutePath().normalize();
+        synchronized (writers) {
+            DiskWriter writer = writers.get(key);
+            if (writer == null) {
+                writer = new DiskWriter(key, fsyncPolicy, directIo);
+                writers.put(key, writer);
+            }
+            writer.references++;
+            return writer;
+        }
+    }
+
+    public void release() throws IOException {
+        synchronized (writers) {
+            if (--references > 0) {
+                return;
+            }
+            writers.remove(path);
+        }
+        // Pausing interrupts the segment worker that gets here last. An interrupted thread
+        // would close the channel on its first call, so the flag is set aside until the queue
+        // has drained and the file has been forced.
+        boolean interrupted = Thread.interrupted();
+        try {
+            while (thread.isAlive()) {
+                try {
+                    if (queue.offer(CLOSE, 100, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            try {
+                if (fsyncPolicy != FsyncPolicy.none && failure == null) {
+                    channel.force(false);
+                }
+            } finally {
+                channel.close();
+                if (directChannel != null) {
+                    directChannel.close();
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    public long write(long position, byte[] buffer, int offset, int length) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        byte[] data = new byte[length];
+        System.arraycopy(buffer, offset, data, 0, length);
+        // Sequences enter the queue in order, so once a batch is written every lower
+        // sequence has been written too and awaitWritten can compare against one number.
+        synchronized (enqueueLock) {
+            Chunk chunk = new Chunk(position, data, ++enqueuedSequence);
+            try {
+                while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                    if (failure != null) {
+                        throw failure;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while queueing write", e);
+            }
+            return chunk.sequence();
+        }
+    }
+
+    public synchronized long writtenSequence() {
+        return writtenSequence;
+    }
+
+    // Keeps waiting through an interrupt: other segments still hold the writer open, so
+    // returning early would leave this segment's chunks queued behind a paused download.
+    public synchronized void awaitWritten(long sequence) throws IOException {
+        boolean interrupted = false;
+        while (writtenSequence < sequence && failure == null && thread.isAlive()) {
+            try {
+                wait(100);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private void run() {
+        List<Chunk> batch = new ArrayList<>();
+        long lastFsync = System.nanoTime();
+        try {
+            boolean closed = false;
+            while (!closed) {
+                batch.add(queue.take());
+                queue.drainTo(batch);
+                closed = batch.removeIf(chunk -> chunk == CLOSE);
+                if (batch.isEmpty()) {
+                    continue;
+                }
+                batch.sort(Comparator.comparingLong(Chunk::position));
+
+                long maxSequence = writeCoalesced(batch);
+                batch.clear();
+
+                if (fsyncPolicy == FsyncPolicy.periodic && System.nanoTime() - lastFsync >= PERIODIC_FSYNC_NANOS) {
+                    channel.force(false);
+                    lastFsync = System.nanoTime();
+                }
+
+                synchronized (this) {
+                    writtenSequence = maxSequence;
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    // Chunks from different segments arrive interleaved; sorting them by position
+    // turns runs of adjacent 8 KB reads into a few large sequential writes.
+    private long writeCoalesced(List<Chunk> batch) throws IOException {
+        long maxSequence = 0;
+        int index = 0;
+        while (index < batch.size()) {
+            long runStart = batch.get(index).position();
+            long runEnd = runStart;
+            int runLast = index;
+            while (runLast < batch.size()
+                    && batch.get(runLast).position() == runEnd
+                    && runEnd - runStart + batch.get(runLast).data().length <= MAX_COALESCED_BYTES) {
+                runEnd += batch.get(runLast).data().length;
+                runLast++;
+            }
+            if (runLast == index) {
+                runLast = index + 1;
+                runEnd = runStart + batch.get(index).data().length;
+            }
+
+            int runLength = (int) (runEnd - runStart);
+            boolean aligned = directChannel != null && blockSize > 0
+                    && runStart % blockSize == 0 && runLength % blockSize == 0;
+            ByteBuffer buffer = aligned
+                    ? ByteBuffer.allocateDirect(runLength + blockSize).alignedSlice(blockSize).limit(runLength)
+                    : ByteBuffer.allocate(runLength);
+            for (int i = index; i < runLast; i++) {
+                buffer.put(batch.get(i).data());
+                maxSequence = Math.max(maxSequence, batch.get(i).sequence());
+            }
+            buffer.flip();
+
+            FileChannel target = aligned ? directChannel : channel;
+            long position = runStart;
+            while (buffer.hasRemaining()) {
+                position += target.write(buffer, position);
+            }
+            index = runLast;
+        }
+        return maxSequence;
+    }
+}
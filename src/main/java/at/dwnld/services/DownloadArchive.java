@@ -0,0 +1,158 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FileModel;
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+public class DownloadArchive {
+
+    private static final String ARCHIVE_FILE = "archive.dat";
+    private static final int PAGE_SIZE = 200;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dwnld-archive");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final File file = new File(ARCHIVE_FILE);
+    // Appends run on the caller and only wait for rewrites and clears, never for page reads.
+    private final Object writeLock = new Object();
+    // Everything past loadLimit was appended during this session and is already in memory.
+    private volatile long readOffset;
+    private volatile long loadLimit = file.length();
+
+    public void loadPage(Consumer<List<FileModel>> onLoaded) {
+        executor.submit(() -> onLoaded.accept(readPage(PAGE_SIZE)));
+    }
+
+    public void loadRemaining(Consumer<List<FileModel>> onLoaded) {
+        executor.submit(() -> onLoaded.accept(readPage(Integer.MAX_VALUE)));
+    }
+
+    public boolean isExhausted() {
+        return readOffset >= loadLimit;
+    }
+
+    // Callers drop these rows from downloads.dat right after, so the append is done before
+    // returning; left to the daemon thread it could be lost when the application exits first.
+    // Records land past loadLimit, where page reads never look.
+    public boolean append(Collection<FileModel> files) {
+        synchronized (writeLock) {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+                for (FileModel fileModel : files) {
+                    writeRecord(out, fileModel);
+                }
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+        }
+    }
+
+    public void remove(Collection<FileModel> files) {
+        List<FileModel> removed = new ArrayList<>(files);
+        executor.submit(() -> {
+            synchronized (writeLock) {
+                rewrite(removed);
+            }
+        });
+    }
+
+    public void clear() {
+        executor.submit(() -> {
+            synchronized (writeLock) {
+                if (file.exists() && !file.delete()) {
+                    System.out.println("Failed to delete archive: " + file.getPath());
+                }
+                readOffset = 0;
+                loadLimit = 0;
+            }
+        });
+    }
+
+    private List<FileModel> readPage(int count) {
+        List<FileModel> page = new ArrayList<>();
+        if (readOffset >= loadLimit) {
+            return page;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(readOffset);
+            while (page.size() < count && raf.getFilePointer() < loadLimit) {
+                FileModel fileModel = readRecord(raf);
+                fileModel.setArchived(true);
+                page.add(fileModel);
+            }
+            readOffset = raf.getFilePointer();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            readOffset = loadLimit;
+        }
+        return page;
+    }
+
+    // Removal rewrites the archive, so the paging cursor and limit are mapped onto
+    // the offsets of the same records in the new file.
+    private void rewrite(List<FileModel> removed) {
+        if (!file.exists()) {
+            return;
+        }
+        File temp = new File(ARCHIVE_FILE + ".tmp");
+        long newReadOffset = -1;
+        long newLoadLimit = -1;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            while (raf.getFilePointer() < raf.length()) {
+                long offset = raf.getFilePointer();
+                if (offset == readOffset) newReadOffset = out.size();
+                if (offset == loadLimit) newLoadLimit = out.size();
+                FileModel fileModel = readRecord(raf);
+                if (removed.stream().noneMatch(r -> sameEntry(r, fileModel))) {
+                    writeRecord(out, fileModel);
+                }
+            }
+            if (newReadOffset < 0) newReadOffset = out.size();
+            if (newLoadLimit < 0) newLoadLimit = out.size();
+        } catch (IOException | ClassNotFoundException e) {
+            e.printStackTrace();
+            temp.delete();
+            return;
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            readOffset = newReadOffset;
+            loadLimit = newLoadLimit;
+        } catch (IOException e) {
+            e.printStackTrace();
+            temp.delete();
+        }
+    }
+
+    private static boolean sameEntry(FileModel a, FileModel b) {
+        return a.getPath().equals(b.getPath()) && a.getAdded().equals(b.getAdded());
+    }
+
+    private static void writeRecord(DataOutputStream out, FileModel fileModel) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(fileModel);
+        }
+        out.writeInt(bytes.size());
+        bytes.writeTo(out);
+    }
+
+    private static FileModel readRecord(RandomAccessFile raf) throws IOException, ClassNotFoundException {
+        byte[] bytes = new byte[raf.readInt()];
+        raf.readFully(bytes);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (FileModel) ois.readObject();
+        }
+    }
+}
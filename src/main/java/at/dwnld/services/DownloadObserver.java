@@ -0,0 +1,29 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FileModel;
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+public interface DownloadObserver {
+
+    ObservableList<FileModel> getDownloads();
+
+    void addDownload(FileModel file);
+
+    default void addDownloads(List<FileModel> files) {
+        files.forEach(this::addDownload);
+    }
+
+    default void removeDownloads(Collection<FileModel> files) {
+        getDownloads().removeAll(new HashSet<>(files));
+    }
+
+    void refreshTable();
+
+    default void runLater(Runnable action) {
+        Platform.runLater(action);
+    }
+}
@@ -1,43 +1,76 @@
 package at.dwnld.services;
 
-import at.dwnld.controllers.MainController;
+import at.dwnld.models.BandwidthProfile;
 import at.dwnld.models.FileInfoModel;
 import at.dwnld.models.FileModel;
 import at.dwnld.models.FileStatus;
+import at.dwnld.models.SegmentProgress;
 import at.dwnld.models.SettingModel;
-import javafx.application.Platform;
+import at.dwnld.models.WriteMode;
 import javafx.collections.ObservableList;
 import okhttp3.*;
 import org.jetbrains.annotations.NotNull;
 import java.io.*;
+import java.net.SocketException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.LocalDateTime;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicLong;
-import static at.dwnld.controllers.MainController.getDownloads;
+import java.util.function.Consumer;
 
 public class DownloadService {
 
+    private static final int MAX_THROTTLE_RETRIES = 8;
+    private static final long STOP_TIMEOUT_MILLIS = 100;
+    private static final long STREAM_CHUNK_SIZE = 4L * 1024 * 1024;
+    private static final long SMALL_FILE_SIZE = 1024 * 1024;
+
     private final OkHttpClient client;
-    private final MainController mainController;
+    private final AsyncDownloadService asyncDownloadService = new AsyncDownloadService();
+    private final ProfileScheduler profileScheduler = new ProfileScheduler(this);
+    private final DownloadObserver observer;
     private final ConcurrentHashMap<String, ExecutorService> downloadExecutors = new ConcurrentHashMap<>();
     private final ConcurrentHashMap<String, List<Future<?>>> downloadTasks = new ConcurrentHashMap<>();
-    private final ConcurrentHashMap<String, ConcurrentHashMap<Integer, Long>> segmentProgress = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Response> probeResponses = new ConcurrentHashMap<>();
+    private final MediaDownloadService mediaDownloadService;
+    private final InterfaceBalancer interfaceBalancer;
+    private final DeltaSyncService deltaSyncService;
+    private final ConnectionWarmer connectionWarmer;
+    private final HostConcurrency hostConcurrency = new HostConcurrency();
+    private final ConcurrentHashMap<String, Set<Runnable>> cancellers = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Thread> extractions = new ConcurrentHashMap<>();
+    private final ExecutorService wholeFileExecutor = Executors.newVirtualThreadPerTaskExecutor();
+    private final ExecutorService copyExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dwnld-copy");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Runnable refreshTask;
 
-    public DownloadService(MainController mainController) {
-        this.mainController = mainController;
+    public DownloadService(DownloadObserver observer) {
+        this.observer = observer;
+        this.refreshTask = observer::refreshTable;
         this.client = new OkHttpClient.Builder()
                 .connectTimeout(30, TimeUnit.SECONDS)
                 .writeTimeout(30, TimeUnit.SECONDS)
                 .readTimeout(30, TimeUnit.SECONDS)
                 .retryOnConnectionFailure(true)
+                .dns(new CachingDns())
+                .connectionPool(new ConnectionPool(32, 5, TimeUnit.MINUTES))
+                .eventListenerFactory(NetworkTraces.listenerFactory())
                 .build();
+        this.connectionWarmer = new ConnectionWarmer(client);
+        this.mediaDownloadService = new MediaDownloadService(client);
+        this.interfaceBalancer = new InterfaceBalancer(client);
+        this.deltaSyncService = new DeltaSyncService(client);
     }
 
     public FileInfoModel getFileInfo(String url, Map<String, String> headers) throws IOException {
-        Request.Builder requestBuilder = new Request.Builder().url(url).head();
+        Request.Builder requestBuilder = new Request.Builder().url(url).head()
+                .tag(NetworkTraces.Tag.class, new NetworkTraces.Tag(url, "probe"));
         if (headers != null) {
             headers.forEach(requestBuilder::addHeader);
         }
@@ -48,53 +81,112 @@ public class DownloadService {
                 .build();
 
         try (Response response = redirectClient.newCall(requestBuilder.build()).execute()) {
-            if (response.isSuccessful()) {
-                String finalUrl = response.request().url().toString();
-                String fileName = null;
-
-                String contentDisposition = response.header("Content-Disposition");
-                if (contentDisposition != null) {
-                    if (contentDisposition.contains("filename=")) {
-                        String[] parts = contentDisposition.split("filename=");
-                        if (parts.length > 1) {
-                            fileName = parts[1].replaceAll("[\"';]", "").trim();
-                        }
-                    } else if (contentDisposition.contains("filename*=")) {
-                        String[] parts = contentDisposition.split("filename\\*=");
-                        if (parts.length > 1) {
-                            String encodedPart = parts[1].trim();
-                            if (encodedPart.contains("''")) {
-                                fileName = encodedPart.substring(encodedPart.lastIndexOf("''") + 2)
-                                        .replaceAll("[\"';]", "").trim();
-                                try {
-                                    fileName = java.net.URLDecoder.decode(fileName, StandardCharsets.UTF_8);
-                                } catch (Exception e) {
-                                    System.out.println(e);
-                                }
-                            }
-                        }
-                    }
+            if (response.isSuccessful() && response.header("Content-Length") != null) {
+                long fileSize = Long.parseLong(Objects.requireNonNull(response.header("Content-Length")));
+                String acceptRanges = response.header("Accept-Ranges");
+                boolean rangesSupported = acceptRanges != null && acceptRanges.toLowerCase().contains("bytes");
+                HostProfiles.getInstance().recordProbe(response, rangesSupported);
+                return toFileInfo(response, fileSize, rangesSupported);
+            }
+        }
+        return probeWithGet(url, headers, redirectClient);
+    }
+
+    // Used when HEAD is refused or has no Content-Length. The open-ended range reveals the size
+    // through Content-Range, and the still-open response becomes the first segment's stream,
+    // so the probe costs no extra round trip.
+    private FileInfoModel probeWithGet(String url, Map<String, String> headers, OkHttpClient redirectClient) throws IOException {
+        Request.Builder requestBuilder = new Request.Builder().url(url).addHeader("Range", "bytes=0-")
+                .tag(NetworkTraces.Tag.class, new NetworkTraces.Tag(url, "probe"));
+        if (headers != null) {
+            headers.forEach(requestBuilder::addHeader);
+        }
+
+        Response response = redirectClient.newCall(requestBuilder.build()).execute();
+        if (!response.isSuccessful() || response.body() == null) {
+            response.close();
+            return new FileInfoModel(null, null, -1L, null, null, false);
+        }
+
+        long fileSize = -1L;
+        boolean rangesSupported = false;
+        FileInfoModel fileInfo;
+        try {
+            String contentRange = response.header("Content-Range");
+            if (response.code() == 206 && contentRange != null && contentRange.startsWith("bytes 0-")) {
+                String total = contentRange.substring(contentRange.indexOf('/') + 1).trim();
+                if (!total.equals("*")) {
+                    fileSize = Long.parseLong(total);
+                    rangesSupported = true;
                 }
+            } else if (response.code() == 200 && response.header("Content-Length") != null) {
+                fileSize = Long.parseLong(Objects.requireNonNull(response.header("Content-Length")));
+            }
 
-                if (fileName == null || fileName.isEmpty()) {
-                    String urlPath = finalUrl.split("\\?")[0];
-                    fileName = urlPath.substring(urlPath.lastIndexOf("/") + 1);
+            HostProfiles.getInstance().recordProbe(response, rangesSupported);
+            fileInfo = toFileInfo(response, fileSize, rangesSupported);
+        } catch (RuntimeException e) {
+            response.close();
+            throw new IOException("Malformed probe response from " + url, e);
+        }
+        Response previous = probeResponses.put(fileInfo.finalUrl(), response);
+        if (previous != null) {
+            previous.close();
+        }
+        return fileInfo;
+    }
 
-                    if (!fileName.contains(".")) {
-                        String contentType = response.header("Content-Type");
-                        String extension = getExtension(contentType);
+    private void discardProbe(String url) {
+        Response probe = url != null ? probeResponses.remove(url) : null;
+        if (probe != null) {
+            probe.close();
+        }
+    }
 
-                        fileName = "downloaded_file_" + System.currentTimeMillis() + extension;
+    private static FileInfoModel toFileInfo(Response response, long fileSize, boolean rangesSupported) {
+        String finalUrl = response.request().url().toString();
+        String fileName = null;
+
+        String contentDisposition = response.header("Content-Disposition");
+        if (contentDisposition != null) {
+            if (contentDisposition.contains("filename=")) {
+                String[] parts = contentDisposition.split("filename=");
+                if (parts.length > 1) {
+                    fileName = parts[1].replaceAll("[\"';]", "").trim();
+                }
+            } else if (contentDisposition.contains("filename*=")) {
+                String[] parts = contentDisposition.split("filename\\*=");
+                if (parts.length > 1) {
+                    String encodedPart = parts[1].trim();
+                    if (encodedPart.contains("''")) {
+                        fileName = encodedPart.substring(encodedPart.lastIndexOf("''") + 2)
+                                .replaceAll("[\"';]", "").trim();
+                        try {
+                            fileName = java.net.URLDecoder.decode(fileName, StandardCharsets.UTF_8);
+                        } catch (Exception e) {
+                            System.out.println(e);
+                        }
                     }
                 }
+            }
+        }
 
-                long fileSize = response.header("Content-Length") != null ?
-                        Long.parseLong(Objects.requireNonNull(response.header("Content-Length"))) : -1L;
+        if (fileName == null || fileName.isEmpty()) {
+            String urlPath = finalUrl.split("\\?")[0];
+            fileName = urlPath.substring(urlPath.lastIndexOf("/") + 1);
 
-                return new FileInfoModel(finalUrl, fileName, fileSize);
+            if (!fileName.contains(".")) {
+                String contentType = response.header("Content-Type");
+                String extension = getExtension(contentType);
+
+                fileName = "downloaded_file_" + System.currentTimeMillis() + extension;
             }
         }
-        return new FileInfoModel(null, null, -1L);
+
+        String sha256 = ContentIndex.sha256FromHeaders(response.header("Digest"),
+                response.header("Repr-Digest"), response.header("X-Checksum-Sha256"));
+
+        return new FileInfoModel(finalUrl, fileName, fileSize, response.header("ETag"), sha256, rangesSupported);
     }
 
     @NotNull
@@ -122,106 +214,490 @@ public class DownloadService {
 
 
     public void download(String url, String filePath, Map<String, String> headers) throws IOException {
-        FileInfoModel fileInfo = getFileInfo(url, headers);
-        url = fileInfo.finalUrl();
-        String fileName = fileInfo.name() != null ? fileInfo.name() : "downloaded_file";
+        download(url, filePath, headers, null);
+    }
+
+    public void download(String url, String filePath, Map<String, String> headers, WriteMode writeMode) throws IOException {
+        download(url, filePath, headers, writeMode, false);
+    }
+
+    public void download(String url, String filePath, Map<String, String> headers, WriteMode writeMode, boolean streaming) throws IOException {
         if (!filePath.endsWith(File.separator)) {
             filePath += File.separator;
         }
+
+        FileModel inFlight = findInFlight(url);
+        if (inFlight != null) {
+            attachToInFlight(inFlight, filePath, headers);
+            return;
+        }
+
+        FileInfoModel fileInfo = getFileInfo(url, headers);
+        // A GET probe leaves its response open for the first segment; if the download is not
+        // added after all, the response is closed instead of holding its connection.
+        try {
+            addProbed(url, fileInfo, filePath, headers, writeMode, streaming);
+        } catch (IOException | RuntimeException e) {
+            discardProbe(fileInfo.finalUrl());
+            throw e;
+        }
+    }
+
+    private void addProbed(String requestedUrl, FileInfoModel fileInfo, String filePath, Map<String, String> headers,
+                           WriteMode writeMode, boolean streaming) throws IOException {
+        String url = fileInfo.finalUrl();
+        FileModel inFlight = findInFlight(url);
+        if (inFlight != null) {
+            discardProbe(url);
+            attachToInFlight(inFlight, filePath, headers);
+            return;
+        }
+
+        String fileName = fileInfo.name() != null ? fileInfo.name() : "downloaded_file";
+        boolean media = MediaDownloadService.isPlaylist(url);
+        if (media) {
+            discardProbe(url);
+            fileName = MediaDownloadService.outputName(fileName, url);
+        }
         filePath += fileName;
-        long fileSize = fileInfo.size();
+        NetworkTraces.adopt(requestedUrl, filePath);
+        long fileSize = media ? -1L : fileInfo.size();
 
         FileModel file = new FileModel(fileName, url, filePath, LocalDateTime.now(), fileSize, LocalDateTime.now(), FileStatus.pending, 0, 0, headers,null);
-        mainController.addDownload(file);
+        file.setWriteMode(writeMode);
+        file.setEtag(fileInfo.etag());
+        file.setMedia(media);
+        file.setSmall(!media && fileSize >= 0 && fileSize < SMALL_FILE_SIZE);
+        file.setStreaming(streaming && !media && !file.isSmall() && fileSize > 0);
+        if (!fileInfo.acceptRanges()) {
+            file.setSegmentCount(1);
+        }
+        // An older copy at the target path may let a published block manifest cut the transfer
+        // down to the changed blocks; whether one exists is checked when the download starts.
+        if (!media && !file.isStreaming() && !file.isSmall() && fileInfo.acceptRanges() && fileSize > 0 && new File(filePath).exists()) {
+            file.setDelta(true);
+        }
+
+        Path existing = media ? null : ContentIndex.getInstance().findCompleted(
+                ContentIndex.resourceKey(url, fileInfo.etag(), fileSize), fileInfo.sha256(), fileSize);
+        if (existing != null) {
+            discardProbe(url);
+            file.setSha256(fileInfo.sha256());
+            file.setLinkedTo(existing.toString());
+            observer.addDownload(file);
+            linkOrCopyLater(existing, file, fileSize);
+            observer.runLater(observer::refreshTable);
+            return;
+        }
+
+        observer.addDownload(file);
 
         if (checkMaxParallelDownloads()) {
+            discardProbe(url);
             file.setStatus(FileStatus.hold);
-            Platform.runLater(mainController::refreshTable);
+            warmQueued();
+            observer.runLater(observer::refreshTable);
             return;
         }
 
         startDownload(file);
     }
 
+    // Bulk additions of many small objects skip the probe: the name comes from the URL and the
+    // size from the single GET that fetches the body. Admission and the table refresh happen
+    // once for the whole batch instead of once per file. Options that need the size up front,
+    // such as a write mode or streaming, go through download() instead.
+    public void downloadAll(List<String> urls, String directory, Map<String, String> headers) {
+        if (!directory.endsWith(File.separator)) {
+            directory += File.separator;
+        }
+
+        Map<String, FileModel> inFlight = new HashMap<>();
+        Set<String> paths = new HashSet<>();
+        int running = 0;
+        for (FileModel file : observer.getDownloads()) {
+            paths.add(file.getPath());
+            if (isInFlight(file)) {
+                inFlight.putIfAbsent(file.getUrl(), file);
+            }
+            if (file.getStatus() == FileStatus.inProgress) {
+                running++;
+            }
+        }
+
+        List<FileModel> added = new ArrayList<>();
+        for (String url : urls) {
+            FileModel source = inFlight.get(url);
+            if (source != null) {
+                attachToInFlight(source, directory, headers);
+                continue;
+            }
+            String filePath = uniquePath(directory, nameFromUrl(url), paths);
+            FileModel file = new FileModel(new File(filePath).getName(), url, filePath, LocalDateTime.now(), -1L, LocalDateTime.now(), FileStatus.hold, 0, 0, headers, null);
+            file.setSmall(true);
+            inFlight.put(url, file);
+            added.add(file);
+        }
+        observer.addDownloads(added);
+
+        int limit = maxParallel();
+        for (FileModel file : added) {
+            if (running >= limit) {
+                break;
+            }
+            startDownload(file);
+            running++;
+        }
+        observer.runLater(observer::refreshTable);
+    }
+
+    private static String nameFromUrl(String url) {
+        String urlPath = url.split("[?#]")[0];
+        String name = urlPath.substring(urlPath.lastIndexOf('/') + 1);
+        try {
+            name = java.net.URLDecoder.decode(name, StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            // keep the raw name
+        }
+        name = name.replaceAll("[\\\\/:*?\"<>|]", "_");
+        return name.isEmpty() ? "downloaded_file" : name;
+    }
+
+    private static String uniquePath(String directory, String fileName, Set<String> taken) {
+        int dot = fileName.lastIndexOf('.');
+        String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String extension = dot > 0 ? fileName.substring(dot) : "";
+        String path = directory + fileName;
+        for (int n = 1; !taken.add(path); n++) {
+            path = directory + base + " (" + n + ")" + extension;
+        }
+        return path;
+    }
+
+    private FileModel findInFlight(String url) {
+        if (url == null) {
+            return null;
+        }
+        for (FileModel file : observer.getDownloads()) {
+            if (url.equals(file.getUrl()) && isInFlight(file)) {
+                return file;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isInFlight(FileModel file) {
+        FileStatus status = file.getStatus();
+        return file.getLinkedTo() == null
+                && (status == FileStatus.pending || status == FileStatus.inProgress
+                || status == FileStatus.hold || status == FileStatus.paused);
+    }
+
+    // The source transfer does the network work; the attached row is linked or copied
+    // into place once it completes.
+    private void attachToInFlight(FileModel source, String directory, Map<String, String> headers) {
+        String filePath = directory + source.getName();
+        if (filePath.equals(source.getPath())) {
+            return;
+        }
+        FileModel file = new FileModel(source.getName(), source.getUrl(), filePath, LocalDateTime.now(), source.getSize(), LocalDateTime.now(), FileStatus.pending, 0, 0, headers, source.getWebsiteUrl());
+        file.setEtag(source.getEtag());
+        file.setLinkedTo(source.getPath());
+        observer.addDownload(file);
+        observer.runLater(observer::refreshTable);
+    }
+
+    private void onDownloadCompleted(FileModel file) {
+        ContentIndex.getInstance().recordCompleted(file);
+        for (FileModel attached : observer.getDownloads()) {
+            if (file.getPath().equals(attached.getLinkedTo()) && attached.getStatus() == FileStatus.pending) {
+                linkOrCopyLater(Path.of(file.getPath()), attached, file.getSize());
+            }
+        }
+    }
+
+    // A hard link is instant but a copy across file systems is not, so it runs off the FX
+    // thread. The row stays pending and linked until then; one cancelled or removed meanwhile
+    // is left as it is.
+    private void linkOrCopyLater(Path source, FileModel target, long size) {
+        copyExecutor.submit(() -> {
+            boolean copied;
+            try {
+                ContentIndex.linkOrCopy(source, Path.of(target.getPath()));
+                copied = true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                copied = false;
+            }
+            boolean succeeded = copied;
+            observer.runLater(() -> {
+                if (target.getStatus() != FileStatus.pending) {
+                    return;
+                }
+                if (succeeded) {
+                    target.setStatus(FileStatus.completed);
+                    target.setSize(size);
+                    target.setDownloadedSize(size);
+                } else {
+                    target.setStatus(FileStatus.failed);
+                }
+                target.setLinkedTo(null);
+                observer.refreshTable();
+            });
+        });
+    }
+
+    private void releaseAttached(FileModel file) {
+        releaseAttached(Set.of(file.getPath()));
+    }
+
+    private void releaseAttached(Set<String> sourcePaths) {
+        for (FileModel attached : observer.getDownloads()) {
+            if (attached.getLinkedTo() != null && sourcePaths.contains(attached.getLinkedTo())
+                    && attached.getStatus() == FileStatus.pending) {
+                attached.setLinkedTo(null);
+                attached.setStatus(FileStatus.hold);
+            }
+        }
+    }
+
+    public void start() {
+        new RecoveryService().recover(new ArrayList<>(observer.getDownloads()))
+                .whenComplete((result, error) -> profileScheduler.start());
+    }
+
     public void startDownload(FileModel file) {
-        if (file.getSize() > 0) {
+        file.setLastTried(LocalDateTime.now());
+        if (file.isMedia()) {
+            downloadMediaFile(file);
+        } else if (file.isSmall()) {
+            downloadWholeFile(file);
+        } else if (file.isDelta()) {
+            downloadDeltaFile(file);
+        } else if (file.getSize() > 0 && SettingModel.getInstance().isAsyncEngine() && !file.isStreaming()) {
+            discardProbe(file.getUrl());
+            downloadSegmentedFileAsync(file);
+        } else if (file.getSize() > 0) {
             downloadSegmentedFile(file);
         } else {
-            file.setStatus(FileStatus.inProgress);
-            Platform.runLater(mainController::refreshTable);
+            downloadWholeFile(file);
+        }
+    }
+
+    // A single GET for the whole body, used when the size is unknown and for small files.
+    // These share one executor instead of a pool per download, so a queue of thousands of
+    // tiny files does not spend its time creating and tearing down threads.
+    private void downloadWholeFile(FileModel file) {
+        file.setStatus(FileStatus.inProgress);
+        observer.runLater(observer::refreshTable);
+
+        List<Future<?>> tasks = new ArrayList<>();
+        downloadTasks.put(file.getPath(), tasks);
 
-            ExecutorService singleExecutor = Executors.newSingleThreadExecutor();
-            downloadExecutors.put(file.getPath(), singleExecutor);
+        tasks.add(wholeFileExecutor.submit(() -> {
+            try {
+                downloadSegment(file, 0, 0, new SegmentProgress(new long[]{0}), 0);
+                if (file.getStatus() == FileStatus.inProgress) {
+                    observer.runLater(() -> {
+                        file.setStatus(FileStatus.completed);
+                        file.setSize(new File(file.getPath()).length());
+                        file.setDownloadedSize(file.getSize());
+                        onDownloadCompleted(file);
+                        observer.refreshTable();
+                        downloadTasks.remove(file.getPath());
+                        checkDownloadsForHold();
+                    });
+                }
+            } catch (IOException e) {
+                failDownload(file);
+            }
+        }));
+    }
+
+    private void downloadMediaFile(FileModel file) {
+        file.setStatus(FileStatus.inProgress);
+        observer.runLater(observer::refreshTable);
+
+        ExecutorService mediaExecutor = Executors.newSingleThreadExecutor();
+        downloadExecutors.put(file.getPath(), mediaExecutor);
+
+        Future<?> task = mediaExecutor.submit(() -> {
+            try {
+                List<MediaDownloadService.MediaSegment> segments = mediaDownloadService.resolve(file.getUrl(), file.getHeaders());
+                file.setMediaSegments(segments.size());
+                mediaDownloadService.download(file, segments, () -> observer.runLater(observer::refreshTable));
+                if (file.getStatus() == FileStatus.inProgress && file.getMediaSegmentsDone() == segments.size()) {
+                    observer.runLater(() -> {
+                        file.setStatus(FileStatus.completed);
+                        file.setSize(new File(file.getPath()).length());
+                        file.setDownloadedSize(file.getSize());
+                        onDownloadCompleted(file);
+                        observer.refreshTable();
+                        downloadExecutors.remove(file.getPath());
+                        downloadTasks.remove(file.getPath());
+                        checkDownloadsForHold();
+                    });
+                }
+            } catch (IOException e) {
+                failDownload(file);
+            }
+        });
+
+        List<Future<?>> tasks = new ArrayList<>();
+        tasks.add(task);
+        downloadTasks.put(file.getPath(), tasks);
+    }
+
+    // The previous copy is moved aside to <path>.dwsync-prev, matching blocks are copied into
+    // the new file, and only the missing ranges are fetched through downloadSegment. Without a
+    // usable manifest, or if the result does not verify, the download falls back to a full transfer.
+    private void downloadDeltaFile(FileModel file) {
+        file.setStatus(FileStatus.inProgress);
+        observer.runLater(observer::refreshTable);
+
+        ExecutorService deltaExecutor = Executors.newSingleThreadExecutor();
+        downloadExecutors.put(file.getPath(), deltaExecutor);
 
-            Future<?> task = singleExecutor.submit(() -> {
+        Future<?> task = deltaExecutor.submit(() -> {
+            Path target = Path.of(file.getPath());
+            Path previous = Path.of(file.getPath() + DeltaManifest.PREVIOUS_SUFFIX);
+            long startTime = System.nanoTime();
+            try {
+                DeltaManifest manifest = deltaSyncService.fetchManifest(file.getUrl(), file.getHeaders());
+                if (manifest == null || manifest.length != file.getSize()) {
+                    restartWithoutDelta(file);
+                    return;
+                }
+                if (!file.isPreviousMovedAside()) {
+                    // A file already at the aside name was not put there by us, so it is left alone.
+                    if (Files.exists(previous)) {
+                        restartWithoutDelta(file);
+                        return;
+                    }
+                    Files.move(target, previous);
+                    file.setPreviousMovedAside(true);
+                }
+
+                Map<Integer, Long> matches = deltaSyncService.scan(manifest, previous);
+                try (RandomAccessFile raf = new RandomAccessFile(file.getPath(), "rw")) {
+                    raf.setLength(file.getSize());
+                }
+                long copied = deltaSyncService.copyMatches(manifest, matches, previous, target);
+                List<long[]> ranges = deltaSyncService.missingRanges(manifest, matches);
+                SegmentProgress progress = new SegmentProgress(ranges.stream().mapToLong(range -> range[0]).toArray());
+                progress.add(copied);
+
+                ExecutorService fetchers = Executors.newFixedThreadPool(SettingModel.getInstance().getSegmentCount());
                 try {
-                    downloadSegment(file, 0, 0, new AtomicLong(0), 0);
-                } catch (IOException e) {
-                    file.setStatus(FileStatus.failed);
-                    Platform.runLater(mainController::refreshTable);
+                    List<Future<?>> fetches = new ArrayList<>();
+                    for (int i = 0; i < ranges.size(); i++) {
+                        long[] range = ranges.get(i);
+                        int rangeId = i;
+                        fetches.add(fetchers.submit(() -> {
+                            downloadSegment(file, range[0], range[1], progress, rangeId);
+                            return null;
+                        }));
+                    }
+                    for (Future<?> fetch : fetches) {
+                        fetch.get();
+                    }
+                } finally {
+                    fetchers.shutdownNow();
                 }
-            });
 
-            List<Future<?>> tasks = new ArrayList<>();
-            tasks.add(task);
-            downloadTasks.put(file.getPath(), tasks);
+                if (file.getStatus() != FileStatus.inProgress) {
+                    return;
+                }
+                if (!manifest.sha256.equals(ContentIndex.hash(target))) {
+                    restartWithoutDelta(file);
+                    return;
+                }
+                discardPrevious(file);
+                completeSegmentedFile(file, progress, 0, startTime);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (IOException | ExecutionException e) {
+                failDownload(file);
+            }
+        });
+
+        List<Future<?>> tasks = new ArrayList<>();
+        tasks.add(task);
+        downloadTasks.put(file.getPath(), tasks);
+    }
+
+    private void restartWithoutDelta(FileModel file) {
+        observer.runLater(() -> {
+            downloadExecutors.remove(file.getPath());
+            downloadTasks.remove(file.getPath());
+            file.setDelta(false);
+            discardPrevious(file);
+            if (file.getStatus() == FileStatus.inProgress) {
+                startDownload(file);
+            }
+        });
+    }
+
+    // Only a copy the engine moved aside itself is ever deleted.
+    private static void discardPrevious(FileModel file) {
+        if (!file.isPreviousMovedAside()) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(Path.of(file.getPath() + DeltaManifest.PREVIOUS_SUFFIX));
+            file.setPreviousMovedAside(false);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
     }
 
+    // In streaming mode the file is split into small chunks that a few connections work through
+    // in ascending order, so the contiguous prefix grows steadily instead of in four islands.
     private void downloadSegmentedFile(FileModel file) {
-        int threadCount = 4;
-        long segmentSize = file.getSize() / threadCount;
-        ExecutorService executorService = Executors.newFixedThreadPool(threadCount);
+        int threadCount = prepareSegments(file);
+        int connections = file.isStreaming() ? Math.min(threadCount, SettingModel.getInstance().getSegmentCount()) : threadCount;
+        ExecutorService executorService = Executors.newFixedThreadPool(connections);
         downloadExecutors.put(file.getPath(), executorService);
 
         List<Future<?>> tasks = new ArrayList<>();
         downloadTasks.put(file.getPath(), tasks);
 
-        ConcurrentHashMap<Integer, Long> fileSegments = new ConcurrentHashMap<>();
-        segmentProgress.put(file.getPath(), fileSegments);
+        SegmentProgress progress = file.getProgress();
 
         file.setStatus(FileStatus.inProgress);
-        Platform.runLater(mainController::refreshTable);
+        observer.runLater(observer::refreshTable);
+        followWithExtractor(file);
 
-        AtomicLong totalDownloadedBytes = new AtomicLong(file.getDownloadedSize());
+        if (useMappedWrites(file)) {
+            try (RandomAccessFile raf = new RandomAccessFile(file.getPath(), "rw")) {
+                if (raf.length() < file.getSize()) {
+                    raf.setLength(file.getSize());
+                }
+            } catch (IOException e) {
+                failDownload(file);
+                return;
+            }
+        }
+
+        long resumed = progress.recount();
         AtomicInteger completedSegments = new AtomicInteger(0);
         long startTime = System.nanoTime();
 
         for (int i = 0; i < threadCount; i++) {
             final int segmentId = i;
-            long start = i * segmentSize;
-            long end = (i == threadCount - 1) ? file.getSize() - 1 : (start + segmentSize - 1);
-
-            long segmentStart = fileSegments.getOrDefault(segmentId, start);
+            long end = file.getSegmentEnd(i);
+            long segmentStart = progress.offset(segmentId);
 
             Future<?> task = executorService.submit(() -> {
                 try {
-                    downloadSegment(file, segmentStart, end, totalDownloadedBytes, segmentId);
+                    if (segmentStart <= end) {
+                        downloadSegment(file, segmentStart, end, progress, segmentId);
+                    }
                     if (completedSegments.incrementAndGet() == threadCount) {
-                        final double elapsedTime = (System.nanoTime() - startTime) / 1e9;
-                        Platform.runLater(() -> {
-                            if (elapsedTime > 0) {
-                                file.setSpeed(totalDownloadedBytes.get() / elapsedTime);
-                            }
-                            if(file.getStatus() == FileStatus.inProgress){
-                                file.setStatus(FileStatus.completed);
-                                file.setDownloadedSize((int) file.getSize());
-                            }
-
-                            mainController.refreshTable();
-
-                            downloadExecutors.remove(file.getPath());
-                            downloadTasks.remove(file.getPath());
-                            segmentProgress.remove(file.getPath());
-
-                            checkDownloadsForHold();
-                        });
+                        completeSegmentedFile(file, progress, resumed, startTime);
                     }
                 } catch (IOException e) {
-                    if (file.getStatus() != FileStatus.paused && file.getStatus() != FileStatus.hold) {
-                        file.setStatus(FileStatus.failed);
-                        Platform.runLater(mainController::refreshTable);
-                    }
+                    failDownload(file);
                 }
             });
 
@@ -229,8 +705,113 @@ public class DownloadService {
         }
     }
 
-    private void downloadSegment(FileModel file, long start, long end, AtomicLong totalDownloadedBytes, int segmentId) throws IOException {
-        Request.Builder requestBuilder = new Request.Builder().url(file.getUrl());
+    private void downloadSegmentedFileAsync(FileModel file) {
+        int threadCount = prepareSegments(file);
+
+        List<Future<?>> tasks = new ArrayList<>();
+        downloadTasks.put(file.getPath(), tasks);
+
+        SegmentProgress progress = file.getProgress();
+
+        file.setStatus(FileStatus.inProgress);
+        observer.runLater(observer::refreshTable);
+        followWithExtractor(file);
+
+        long resumed = progress.recount();
+        AtomicInteger completedSegments = new AtomicInteger(0);
+        long startTime = System.nanoTime();
+
+        for (int i = 0; i < threadCount; i++) {
+            final int segmentId = i;
+            long end = file.getSegmentEnd(i);
+            long segmentStart = progress.offset(segmentId);
+            long[] lastReported = {segmentStart};
+
+            CompletableFuture<Long> task = segmentStart > end
+                    ? CompletableFuture.completedFuture(0L)
+                    : asyncDownloadService.downloadSegment(file, segmentStart, end, progress, segmentId, position -> {
+                // Only this segment's write chain reports here, one write at a time.
+                if (position - lastReported[0] >= 1024 * 1024) {
+                    lastReported[0] = position;
+                    file.setDownloadedSize(progress.total());
+                    observer.runLater(refreshTask);
+                }
+            });
+
+            task.whenComplete((written, error) -> {
+                if (error != null) {
+                    failDownload(file);
+                    return;
+                }
+                progress.set(segmentId, segmentStart + written);
+                if (completedSegments.incrementAndGet() == threadCount) {
+                    completeSegmentedFile(file, progress, resumed, startTime);
+                }
+            });
+
+            tasks.add(task);
+        }
+    }
+
+    // Only a running download can fail; a pause or hold that interrupted the segments is not a failure.
+    private void failDownload(FileModel file) {
+        synchronized (file) {
+            if (file.getStatus() != FileStatus.inProgress) {
+                return;
+            }
+            file.setStatus(FileStatus.failed);
+        }
+        stopTransfers(file);
+        // Rows waiting on this transfer fetch on their own instead of staying pending.
+        observer.runLater(() -> {
+            releaseAttached(file);
+            observer.refreshTable();
+            checkDownloadsForHold();
+        });
+    }
+
+    // A host with a profile starts from the connection count that worked best there.
+    private int prepareSegments(FileModel file) {
+        if (file.getSegmentCount() <= 0) {
+            HttpUrl url = HttpUrl.parse(file.getUrl());
+            int segmentCount = SettingModel.getInstance().getSegmentCount();
+            file.setSegmentCount(file.isStreaming()
+                    ? (int) Math.max(1, (file.getSize() + STREAM_CHUNK_SIZE - 1) / STREAM_CHUNK_SIZE)
+                    : url != null ? HostProfiles.getInstance().segmentCountFor(url.host(), segmentCount) : segmentCount);
+        }
+        return file.getSegmentCount();
+    }
+
+    private void completeSegmentedFile(FileModel file, SegmentProgress progress, long resumed, long startTime) {
+        long elapsedNanos = System.nanoTime() - startTime;
+        final double elapsedTime = elapsedNanos / 1e9;
+        HttpUrl url = HttpUrl.parse(file.getUrl());
+        if (url != null && !file.isStreaming() && !file.isDelta() && file.getStatus() == FileStatus.inProgress) {
+            HostProfiles.getInstance().recordDownload(url.host(), file.getSegmentCount(), progress.total() - resumed, elapsedNanos);
+        }
+        observer.runLater(() -> {
+            if (elapsedTime > 0) {
+                file.setSpeed(progress.total() / elapsedTime);
+            }
+            if(file.getStatus() == FileStatus.inProgress){
+                file.setStatus(FileStatus.completed);
+                file.setDownloadedSize(file.getSize());
+                file.resetSegments();
+                onDownloadCompleted(file);
+            }
+
+            observer.refreshTable();
+
+            downloadExecutors.remove(file.getPath());
+            downloadTasks.remove(file.getPath());
+
+            checkDownloadsForHold();
+        });
+    }
+
+    private void downloadSegment(FileModel file, long start, long end, SegmentProgress progress, int segmentId) throws IOException {
+        Request.Builder requestBuilder = new Request.Builder().url(file.getUrl())
+                .tag(NetworkTraces.Tag.class, new NetworkTraces.Tag(file.getPath(), "segment " + segmentId));
         if (file.getHeaders() != null) {
             file.getHeaders().forEach(requestBuilder::addHeader);
         }
@@ -239,91 +820,383 @@ public class DownloadService {
             requestBuilder.addHeader("Range", "bytes=" + start + "-" + end);
         }
 
-        try (Response response = client.newCall(requestBuilder.build()).execute()) {
+        Request request = requestBuilder.build();
+        String host = request.url().host();
+        try {
+            hostConcurrency.acquire(host);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection to " + host);
+        }
+
+        // Pausing cancels every registered call, so a stalled read fails at once instead of
+        // waiting for the read timeout.
+        Set<Runnable> fileCancellers = cancellers.computeIfAbsent(file.getPath(), key -> ConcurrentHashMap.newKeySet());
+        List<Runnable> registered = new ArrayList<>();
+        Consumer<Runnable> register = canceller -> {
+            registered.add(canceller);
+            fileCancellers.add(canceller);
+            if (file.getStatus() == FileStatus.paused || file.getStatus() == FileStatus.hold) {
+                canceller.run();
+            }
+        };
+
+        Response probe = start == 0 ? probeResponses.remove(file.getUrl()) : null;
+        InterfaceBalancer.Lease lease;
+        try {
+            if (probe != null) {
+                register.accept(probe::close);
+                lease = new InterfaceBalancer.Lease(null, probe);
+            } else {
+                lease = openThrottled(request, host, call -> register.accept(call::cancel));
+            }
+        } catch (IOException e) {
+            registered.forEach(fileCancellers::remove);
+            hostConcurrency.release(host);
+            throw e;
+        }
+        long transferStarted = System.nanoTime();
+        long transferred = 0;
+        try (Response response = lease.response()) {
             if (!response.isSuccessful() || response.body() == null) {
-                Platform.runLater(() -> {
-                    file.setStatus(FileStatus.failed);
-                    mainController.refreshTable();
-                });
-                return;
+                throw new IOException("Unexpected response code " + response.code());
+            }
+            if (probe == null && end != 0 && !rangeMatches(response.code(), response.header("Content-Range"), start, end, file.getSize())) {
+                throw new IOException("Server returned an unexpected range for bytes " + start + "-" + end);
+            }
+            // A bulk addition assumes every object is small. A large body is written as one
+            // resumable segment instead, so a pause keeps its offset rather than restarting.
+            long contentLength = response.body().contentLength();
+            if (end == 0 && file.isSmall() && contentLength >= SMALL_FILE_SIZE) {
+                file.setSmall(false);
+                file.setSize(contentLength);
+                file.setSegmentCount(1);
+                progress = file.getProgress();
             }
 
-            File targetFile = new File(file.getPath());
-            try (RandomAccessFile raf = new RandomAccessFile(targetFile, "rw");
-                 InputStream inputStream = response.body().byteStream()) {
+            SegmentWriter writer = openWriter(file, start, end);
+            long currentPosition = start;
+            try (InputStream inputStream = response.body().byteStream()) {
 
-                raf.seek(start);
                 byte[] buffer = new byte[8192];
                 int bytesRead;
                 long bytesReadInSegment = 0;
                 long lastUpdateTime = System.nanoTime();
-                long lastDownloadedBytes = totalDownloadedBytes.get();
-                long currentPosition = start;
+                long lastDownloadedBytes = progress.total();
+
+                long remaining = end != 0 ? end - start + 1 : Long.MAX_VALUE;
 
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                while (remaining > 0 && (bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining))) != -1) {
+                    remaining -= bytesRead;
                     if (file.getStatus() == FileStatus.paused || file.getStatus() == FileStatus.hold) {
-                        if (segmentProgress.containsKey(file.getPath())) {
-                            segmentProgress.get(file.getPath()).put(segmentId, currentPosition);
-                        }
                         break;
                     }
 
-                    raf.write(buffer, 0, bytesRead);
+                    try {
+                        RateLimiter.getInstance().acquire(bytesRead);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while throttled");
+                    }
+                    writer.write(buffer, 0, bytesRead);
                     bytesReadInSegment += bytesRead;
+                    transferred += bytesRead;
                     currentPosition += bytesRead;
-                    long newTotalDownloaded = totalDownloadedBytes.addAndGet(bytesRead);
+                    progress.advance(segmentId, writer.committed(currentPosition), bytesRead);
 
+                    // FileModel setters are safe off the FX thread; the table picks the values up on
+                    // its next flush, so a progress update allocates nothing but the refresh request.
                     if (bytesReadInSegment % (1024 * 1024) < 8192) {
-                        if (segmentProgress.containsKey(file.getPath())) {
-                            segmentProgress.get(file.getPath()).put(segmentId, currentPosition);
-                        }
-
                         long currentTime = System.nanoTime();
                         double timeDiff = (currentTime - lastUpdateTime) / 1e9;
+                        long newTotalDownloaded = progress.total();
 
                         if (timeDiff > 0.5) {
-                            long bytesDiff = newTotalDownloaded - lastDownloadedBytes;
-                            double currentSpeed = bytesDiff / timeDiff;
-
-                            Platform.runLater(() -> {
-                                file.setSpeed((long) currentSpeed);
-                                file.setDownloadedSize((int) newTotalDownloaded);
-                                mainController.refreshTable();
-                            });
-
+                            file.setSpeed((long) ((newTotalDownloaded - lastDownloadedBytes) / timeDiff));
                             lastUpdateTime = currentTime;
                             lastDownloadedBytes = newTotalDownloaded;
-                        } else {
-                            Platform.runLater(() -> {
-                                file.setDownloadedSize((int) newTotalDownloaded);
-                                mainController.refreshTable();
-                            });
                         }
+                        file.setDownloadedSize(newTotalDownloaded);
+                        observer.runLater(refreshTask);
+                    }
+                }
+            } finally {
+                // Once the writer has closed, everything read so far is in the file, so the
+                // offset can move to the exact end even when the read loop was cut short.
+                writer.close();
+                progress.set(segmentId, currentPosition);
+            }
+        } catch (IOException e) {
+            // A cancelled call is our own pause, not a sign of a bad interface or host.
+            if (file.getStatus() != FileStatus.paused && file.getStatus() != FileStatus.hold) {
+                InterfaceBalancer.onTransferError(lease.lane(), e);
+                if (e instanceof SocketException) {
+                    hostConcurrency.backOff(host, 0);
+                }
+            }
+            throw e;
+        } finally {
+            registered.forEach(fileCancellers::remove);
+            hostConcurrency.release(host);
+            HostProfiles.getInstance().recordTransfer(host, transferred, System.nanoTime() - transferStarted);
+            if (lease.lane() != null) {
+                lease.lane().record(transferred, System.nanoTime() - transferStarted);
+                lease.lane().release();
+            }
+        }
+    }
+
+    // Throttling responses and refused connections are retried after the host's backoff
+    // instead of failing the download; the caller holds a host permit throughout.
+    private InterfaceBalancer.Lease openThrottled(Request request, String host, Consumer<Call> onCall) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            long retryAfter;
+            try {
+                InterfaceBalancer.Lease lease = interfaceBalancer.execute(request, onCall);
+                int code = lease.response().code();
+                if ((code != 429 && code != 503) || attempt >= MAX_THROTTLE_RETRIES) {
+                    if (lease.response().isSuccessful()) {
+                        hostConcurrency.healthy(host);
                     }
+                    return lease;
+                }
+                retryAfter = HostConcurrency.retryAfterMillis(lease.response().header("Retry-After"), attempt);
+                lease.response().close();
+                if (lease.lane() != null) {
+                    lease.lane().release();
+                }
+            } catch (SocketException e) {
+                if (attempt >= MAX_THROTTLE_RETRIES) {
+                    throw e;
                 }
+                retryAfter = HostConcurrency.retryAfterMillis(null, attempt);
+            }
+
+            hostConcurrency.backOff(host, retryAfter);
+            try {
+                hostConcurrency.awaitUnblocked(host);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while backing off from " + host);
             }
         }
     }
 
+    // A 200 carries the whole file, which is only usable when the segment is the whole file.
+    static boolean rangeMatches(int code, String contentRange, long start, long end, long size) {
+        if (code == 200) {
+            return start == 0 && end == size - 1;
+        }
+        if (code != 206 || contentRange == null || !contentRange.startsWith("bytes ")) {
+            return false;
+        }
+        try {
+            String range = contentRange.substring(6, contentRange.indexOf('/'));
+            String[] bounds = range.split("-");
+            return Long.parseLong(bounds[0].trim()) == start && Long.parseLong(bounds[1].trim()) == end;
+        } catch (RuntimeException e) {
+            return false;
+        }
+    }
+
+    private SegmentWriter openWriter(FileModel file, long start, long end) throws IOException {
+        File targetFile = new File(file.getPath());
+        if (end != 0 && useMappedWrites(file)) {
+            return new MappedSegmentWriter(targetFile, start, end);
+        }
+        SettingModel settings = SettingModel.getInstance();
+        SegmentWriter writer;
+        if (file.isSmall()) {
+            writer = new StreamSegmentWriter(targetFile);
+        } else if (settings.isWriteBehind() && !file.isStreaming()) {
+            // Streaming readers follow the recorded offsets, so bytes must be in the file when counted.
+            writer = new QueuedSegmentWriter(DiskWriter.acquire(targetFile.toPath(), settings.getFsync_policy(), settings.isDirectIo()), start);
+        } else {
+            writer = new RandomAccessSegmentWriter(targetFile, start);
+        }
+
+        // A whole-file GET carries the body in order, so it is teed to the extractor directly.
+        ArchiveExtractor extractor = end == 0 ? extractorFor(file) : null;
+        if (extractor != null) {
+            return new ExtractingSegmentWriter(writer, extractor, file.getSize() > 0 ? file.getSize() : -1,
+                    () -> file.getStatus() == FileStatus.paused || file.getStatus() == FileStatus.hold || file.getStatus() == FileStatus.cancelled);
+        }
+        return writer;
+    }
+
+    // A single segment or a streaming download fills the file from offset 0 upwards, so the
+    // extractor follows the contiguous prefix on disk. After a pause it starts over from byte 0
+    // once the stopped run has removed its partial output.
+    private void followWithExtractor(FileModel file) {
+        if (file.getSegmentCount() != 1 && !file.isStreaming()) {
+            return;
+        }
+        ArchiveExtractor extractor = extractorFor(file);
+        if (extractor != null) {
+            extractions.compute(file.getPath(), (path, previous) -> {
+                if (previous != null) {
+                    previous.interrupt();
+                }
+                return extractor.start(new ContiguousInputStream(file), previous,
+                        () -> file.getStatus() != FileStatus.inProgress && file.getStatus() != FileStatus.completed);
+            });
+        }
+    }
+
+    private ArchiveExtractor extractorFor(FileModel file) {
+        ArchiveExtractor.Format format = ArchiveExtractor.detect(file.getName());
+        if (format == null || !SettingModel.getInstance().isStreamExtract()) {
+            return null;
+        }
+        Consumer<String> onStatus = status -> {
+            file.setExtractionStatus(status);
+            observer.runLater(observer::refreshTable);
+        };
+        return new ArchiveExtractor(format, ArchiveExtractor.destinationFor(file.getPath()), onStatus);
+    }
+
+    private boolean useMappedWrites(FileModel file) {
+        if (file.getWriteMode() != null) {
+            return file.getWriteMode() == WriteMode.mapped;
+        }
+        long threshold = SettingModel.getInstance().getMmap_threshold();
+        return threshold > 0 && file.getSize() >= threshold * 1024 * 1024;
+    }
+
     public void pauseDownload(FileModel file) {
         file.setStatus(FileStatus.paused);
-        Platform.runLater(mainController::refreshTable);
-        ExecutorService executor = downloadExecutors.get(file.getPath());
-        if (executor != null) {
-            executor.shutdownNow();
-            downloadExecutors.remove(file.getPath());
+        stopTransfers(file);
+        observer.runLater(observer::refreshTable);
+        checkDownloadsForHold();
+    }
+
+    private void stopTransfers(FileModel file) {
+        stopTransfers(List.of(file));
+    }
+
+    // Segments record their offset once their writer has closed, so once the in-flight calls
+    // are cancelled and the workers have unwound, the persisted offsets match the bytes on disk.
+    // Every download is signalled before any is waited on, so stopping many shares one timeout.
+    private void stopTransfers(Collection<FileModel> files) {
+        List<ExecutorService> stopping = new ArrayList<>();
+        for (FileModel file : files) {
+            Set<Runnable> fileCancellers = cancellers.remove(file.getPath());
+            if (fileCancellers != null) {
+                fileCancellers.forEach(Runnable::run);
+            }
+
+            List<Future<?>> tasks = downloadTasks.remove(file.getPath());
+            if (tasks != null) {
+                for (Future<?> task : tasks) {
+                    task.cancel(true);
+                }
+            }
+
+            ExecutorService executor = downloadExecutors.remove(file.getPath());
+            if (executor != null) {
+                executor.shutdownNow();
+                stopping.add(executor);
+            }
         }
 
-        List<Future<?>> tasks = downloadTasks.get(file.getPath());
-        if (tasks != null) {
-            for (Future<?> task : tasks) {
-                task.cancel(true);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT_MILLIS);
+        for (ExecutorService executor : stopping) {
+            try {
+                executor.awaitTermination(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    // Bulk operations change every status first, stop the affected transfers together and
+    // re-plan once; going through pauseDownload per row would admit and stop held downloads
+    // one by one along the way.
+    public void pauseDownloads(Collection<FileModel> files) {
+        List<FileModel> running = new ArrayList<>();
+        for (FileModel file : files) {
+            FileStatus status = file.getStatus();
+            if (status == FileStatus.inProgress || status == FileStatus.hold) {
+                file.setStatus(FileStatus.paused);
+                if (status == FileStatus.inProgress) {
+                    running.add(file);
+                }
             }
-            downloadTasks.remove(file.getPath());
         }
+        stopTransfers(running);
+        requestReplan();
+    }
 
+    // Resumed downloads join the queue and the re-plan admits them oldest first up to the limit.
+    public void resumeDownloads(Collection<FileModel> files) {
+        for (FileModel file : files) {
+            if (file.getStatus() == FileStatus.paused) {
+                file.setStatus(FileStatus.hold);
+            }
+        }
+        requestReplan();
+    }
 
-        checkDownloadsForHold();
+    // Finished downloads are left alone, as a single cancel never touched them either.
+    public void cancelDownloads(Collection<FileModel> files) {
+        List<FileModel> unfinished = new ArrayList<>();
+        for (FileModel file : files) {
+            if (file.getStatus() != FileStatus.completed) {
+                unfinished.add(file);
+            }
+        }
+        discardDownloads(unfinished);
+    }
+
+    private void discardDownloads(Collection<FileModel> files) {
+        List<FileModel> running = new ArrayList<>();
+        for (FileModel file : files) {
+            if (file.getStatus() == FileStatus.inProgress) {
+                running.add(file);
+            }
+            file.setStatus(FileStatus.cancelled);
+        }
+        stopTransfers(running);
+
+        Set<String> paths = new HashSet<>();
+        for (FileModel file : files) {
+            deleteDownloadedFile(file);
+            file.resetSegments();
+            file.setDownloadedSize(0);
+            file.setSpeed(0);
+            paths.add(file.getPath());
+        }
+        releaseAttached(paths);
+        requestReplan();
+    }
+
+    // Rows leave the list in one change; with deleteFiles their files are removed from disk,
+    // finished ones included, otherwise running transfers are only stopped.
+    public void removeDownloads(Collection<FileModel> files, boolean deleteFiles) {
+        if (deleteFiles) {
+            discardDownloads(files);
+        } else {
+            List<FileModel> running = new ArrayList<>();
+            Set<String> paths = new HashSet<>();
+            for (FileModel file : files) {
+                if (file.getStatus() == FileStatus.inProgress) {
+                    running.add(file);
+                }
+                if (file.getStatus() != FileStatus.completed) {
+                    file.setStatus(FileStatus.cancelled);
+                }
+                paths.add(file.getPath());
+            }
+            stopTransfers(running);
+            releaseAttached(paths);
+            requestReplan();
+        }
+        for (FileModel file : files) {
+            NetworkTraces.forget(file.getPath());
+            extractions.remove(file.getPath());
+        }
+        observer.removeDownloads(files);
     }
 
     public void resumeDownload(FileModel file) {
@@ -333,35 +1206,48 @@ public class DownloadService {
             } else {
                 startDownload(file);
             }
-            Platform.runLater(mainController::refreshTable);
+            observer.runLater(observer::refreshTable);
         }
     }
 
     public void cancelDownload(FileModel file) {
         pauseDownload(file);
-        File downloadedFile = new File(file.getPath());
-        if (downloadedFile.exists()) {
-            boolean deleted = downloadedFile.delete();
-            if (!deleted) {
-                System.out.println("Failed to delete file: " + file.getPath());
-            }
-        }
+        deleteDownloadedFile(file);
 
         downloadExecutors.remove(file.getPath());
         downloadTasks.remove(file.getPath());
-        segmentProgress.remove(file.getPath());
         file.setStatus(FileStatus.cancelled);
+        file.resetSegments();
         file.setDownloadedSize(0);
         file.setSpeed(0);
+        releaseAttached(file);
 
-        Platform.runLater(() -> {
-            mainController.refreshTable();
+        observer.runLater(() -> {
+            observer.refreshTable();
             checkDownloadsForHold();
         });
     }
 
+    private static void deleteDownloadedFile(FileModel file) {
+        File downloadedFile = new File(file.getPath());
+        if (downloadedFile.exists()) {
+            boolean deleted = downloadedFile.delete();
+            if (!deleted) {
+                System.out.println("Failed to delete file: " + file.getPath());
+            }
+        }
+        File previousCopy = new File(file.getPath() + DeltaManifest.PREVIOUS_SUFFIX);
+        if (file.isPreviousMovedAside()) {
+            if (previousCopy.renameTo(downloadedFile)) {
+                file.setPreviousMovedAside(false);
+            } else {
+                System.out.println("Failed to restore previous copy: " + previousCopy.getPath());
+            }
+        }
+    }
+
     public Boolean checkMaxParallelDownloads() {
-        ObservableList<FileModel> fmd = getDownloads();
+        ObservableList<FileModel> fmd = observer.getDownloads();
         int activeDownloads = 0;
 
         for (FileModel file : fmd) {
@@ -370,12 +1256,70 @@ public class DownloadService {
             }
         }
 
-        return activeDownloads >= SettingModel.getInstance().getMax_parallel();
+        return activeDownloads >= maxParallel();
+    }
+
+    private int maxParallel() {
+        BandwidthProfile profile = profileScheduler.getActiveProfile();
+        return profile != null ? profile.maxParallel() : SettingModel.getInstance().getMax_parallel();
+    }
+
+    // Called after settings are saved. Running transfers keep their connections unless the
+    // new limits put them over; queued downloads that have not transferred anything pick up
+    // the new segment count when they are admitted.
+    public void reconfigure() {
+        int segmentCount = SettingModel.getInstance().getSegmentCount();
+        for (FileModel file : observer.getDownloads()) {
+            FileStatus status = file.getStatus();
+            if ((status == FileStatus.hold || status == FileStatus.pending || status == FileStatus.paused)
+                    && file.getSegmentCount() > 1 && file.getSegmentCount() != segmentCount
+                    && (file.getProgress() == null || file.getProgress().downloaded() == 0)) {
+                file.setSegmentCount(0);
+            }
+        }
+        hostConcurrency.reconfigure();
+        profileScheduler.start();
+    }
+
+    // Brings the number of running downloads in line with the current limit: the most
+    // recently started ones go back on hold, and held ones are admitted oldest first.
+    public void requestReplan() {
+        observer.runLater(this::replan);
+    }
+
+    public void replan() {
+        int limit = maxParallel();
+        List<FileModel> running = new ArrayList<>();
+        List<FileModel> held = new ArrayList<>();
+        for (FileModel file : observer.getDownloads()) {
+            if (file.getStatus() == FileStatus.inProgress) {
+                running.add(file);
+            } else if (file.getStatus() == FileStatus.hold) {
+                held.add(file);
+            }
+        }
+
+        // Every demoted download is marked first so their transfers stop under one shared timeout.
+        running.sort(Comparator.comparing(FileModel::getLastTried).reversed());
+        List<FileModel> demoted = new ArrayList<>();
+        for (int i = 0; i < running.size() - limit; i++) {
+            FileModel file = running.get(i);
+            file.setStatus(FileStatus.hold);
+            demoted.add(file);
+        }
+        stopTransfers(demoted);
+
+        held.sort(Comparator.comparing(FileModel::getLastTried));
+        for (int i = 0; i < Math.min(held.size(), limit - running.size()); i++) {
+            startDownload(held.get(i));
+        }
+        warmQueued();
+        observer.refreshTable();
     }
 
     private void checkDownloadsForHold() {
         if (!checkMaxParallelDownloads()) {
-            ObservableList<FileModel> downloads = getDownloads();
+            ObservableList<FileModel> downloads = observer.getDownloads();
 
             FileModel nextFile = downloads.stream()
                     .filter(file -> file.getStatus() == FileStatus.hold)
@@ -386,5 +1330,20 @@ public class DownloadService {
                 startDownload(nextFile);
             }
         }
+        warmQueued();
+    }
+
+    // Small files are left out: each is a single request on an already pooled connection, and
+    // sorting a bulk queue of them on every completion would cost more than it saves.
+    private void warmQueued() {
+        List<FileModel> queued = new ArrayList<>();
+        for (FileModel file : observer.getDownloads()) {
+            if ((file.getStatus() == FileStatus.hold || file.getStatus() == FileStatus.pending)
+                    && file.getLinkedTo() == null && !file.isSmall()) {
+                queued.add(file);
+            }
+        }
+        queued.sort(Comparator.comparing(FileModel::getLastTried));
+        connectionWarmer.warm(queued);
     }
 }
\ No newline at end of file
@@ -0,0 +1,65 @@
+package at.dwnld.services;
+
+import java.io.IOException;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.function.BooleanSupplier;
+
+class ExtractingSegmentWriter implements SegmentWriter {
+
+    private static final int PIPE_SIZE = 1024 * 1024;
+
+    private final SegmentWriter delegate;
+    private final PipedOutputStream pipe;
+    private final Thread extractorThread;
+    private final long length;
+    private final BooleanSupplier stopped;
+    private boolean teeing = true;
+    private long teed;
+    private volatile boolean aborted;
+
+    // length is the size of the whole body, or -1 when the server did not say.
+    ExtractingSegmentWriter(SegmentWriter delegate, ArchiveExtractor extractor, long length, BooleanSupplier stopped) throws IOException {
+        this.delegate = delegate;
+        this.length = length;
+        this.stopped = stopped;
+        PipedInputStream in = new PipedInputStream(PIPE_SIZE);
+        this.pipe = new PipedOutputStream(in);
+        this.extractorThread = extractor.start(in, null, () -> aborted);
+    }
+
+    // The file on disk is the source of truth, so a failing or finished extractor
+    // just stops receiving bytes instead of failing the download.
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        delegate.write(buffer, offset, length);
+        if (teeing) {
+            try {
+                pipe.write(buffer, offset, length);
+                teed += length;
+            } catch (IOException e) {
+                teeing = false;
+            }
+        }
+    }
+
+    @Override
+    public long committed(long position) {
+        return delegate.committed(position);
+    }
+
+    // A body cut short by a pause or cancel is not a broken archive; the extractor removes
+    // what it wrote instead of reporting a failure, and the restarted download tees again.
+    @Override
+    public void close() throws IOException {
+        aborted = stopped.getAsBoolean() || (length >= 0 && teed < length);
+        try {
+            pipe.close();
+            extractorThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            delegate.close();
+        }
+    }
+}
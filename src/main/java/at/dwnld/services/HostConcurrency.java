@@ -0,0 +1,109 @@
+package at.dwnld.services;
+
+import at.dwnld.models.SettingModel;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+
+// Additive-increase/multiplicative-decrease connection limit per host, shared by every
+// download in the queue. A new host starts at the configured segment count, so a healthy
+// server is not throttled below what the user asked for; healthy responses raise the limit
+// by one per window, throttling responses and resets halve it, and Retry-After blocks the
+// host until it has passed.
+class HostConcurrency {
+
+    private static final long MAX_BACKOFF_MILLIS = 60_000;
+
+    private final Map<String, Host> hosts = new HashMap<>();
+
+    private static final class Host {
+        double limit;
+        int active;
+        long blockedUntil;
+
+        Host(double limit) {
+            this.limit = limit;
+        }
+    }
+
+    synchronized void acquire(String host) throws InterruptedException {
+        Host state = hosts.computeIfAbsent(host, key -> new Host(initialLimit(key)));
+        while (true) {
+            long now = System.currentTimeMillis();
+            int allowed = Math.min((int) state.limit, SettingModel.getInstance().getHostConnectionLimit());
+            if (now >= state.blockedUntil && state.active < Math.max(1, allowed)) {
+                state.active++;
+                return;
+            }
+            wait(now < state.blockedUntil ? state.blockedUntil - now : 0);
+        }
+    }
+
+    private static double initialLimit(String host) {
+        SettingModel settings = SettingModel.getInstance();
+        int seed = Math.max(settings.getSegmentCount(), HostProfiles.getInstance().knownConnections(host));
+        return Math.max(1, Math.min(seed, settings.getHostConnectionLimit()));
+    }
+
+    // Keeps the caller's permit while the host is blocked by a Retry-After.
+    synchronized void awaitUnblocked(String host) throws InterruptedException {
+        Host state = hosts.get(host);
+        long now;
+        while (state != null && (now = System.currentTimeMillis()) < state.blockedUntil) {
+            wait(state.blockedUntil - now);
+        }
+    }
+
+    // Clamps every host to a changed ceiling and wakes waiters so a raised one takes effect.
+    synchronized void reconfigure() {
+        int ceiling = SettingModel.getInstance().getHostConnectionLimit();
+        for (Host state : hosts.values()) {
+            state.limit = Math.min(state.limit, ceiling);
+        }
+        notifyAll();
+    }
+
+    synchronized void release(String host) {
+        Host state = hosts.get(host);
+        if (state != null) {
+            state.active--;
+            notifyAll();
+        }
+    }
+
+    synchronized void healthy(String host) {
+        Host state = hosts.get(host);
+        if (state != null) {
+            state.limit = Math.min(state.limit + 1 / state.limit, SettingModel.getInstance().getHostConnectionLimit());
+            notifyAll();
+        }
+    }
+
+    synchronized void backOff(String host, long retryAfterMillis) {
+        Host state = hosts.get(host);
+        if (state != null) {
+            state.limit = Math.max(1, state.limit / 2);
+            state.blockedUntil = Math.max(state.blockedUntil, System.currentTimeMillis() + retryAfterMillis);
+        }
+    }
+
+    // Retry-After is either delta-seconds or an HTTP date; without one, back off exponentially.
+    static long retryAfterMillis(String header, int attempt) {
+        if (header != null) {
+            try {
+                return Math.min(Long.parseLong(header.trim()) * 1000, MAX_BACKOFF_MILLIS);
+            } catch (NumberFormatException e) {
+                try {
+                    ZonedDateTime date = ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME);
+                    long millis = Duration.between(ZonedDateTime.now(date.getZone()), date).toMillis();
+                    return Math.min(Math.max(0, millis), MAX_BACKOFF_MILLIS);
+                } catch (DateTimeParseException ignored) {
+                }
+            }
+        }
+        return Math.min(1000L << Math.min(attempt, 6), MAX_BACKOFF_MILLIS);
+    }
+}
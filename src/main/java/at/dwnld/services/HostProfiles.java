@@ -0,0 +1,169 @@
+package at.dwnld.services;
+
+import at.dwnld.models.SettingModel;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// What the engine has learned about each host, kept in hosts.dat across runs. Whole-download
+// throughput is recorded per connection count; a new download uses the best count so far, or
+// an untried neighbour of it, so the count settles on the host's optimum within a few downloads.
+class HostProfiles implements Serializable {
+    @Serial
+    private static final long serialVersionUID = 1L;
+    private static volatile File store = new File("hosts.dat");
+    private static final int MAX_HOSTS = 1000;
+    private static final long MIN_SAMPLE_BYTES = 8L * 1024 * 1024;
+    private static final long MIN_TRANSFER_BYTES = 1024 * 1024;
+    private static final double SMOOTHING = 0.3;
+    private static HostProfiles instance;
+    // Probes are recorded on the FX thread, so hosts.dat is written in the background.
+    private static final ExecutorService saveExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dwnld-hosts");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Map<String, HostProfile> profiles = new HashMap<>();
+
+    static final class HostProfile implements Serializable {
+        @Serial
+        private static final long serialVersionUID = 1L;
+        final Map<Integer, Double> throughputByConnections = new HashMap<>();
+        double connectionThroughput;
+        double rttMillis;
+        boolean rangesSupported = true;
+        boolean http2;
+        long updated;
+
+        int bestConnections() {
+            return throughputByConnections.entrySet().stream()
+                    .max(Map.Entry.comparingByValue())
+                    .map(Map.Entry::getKey)
+                    .orElse(0);
+        }
+    }
+
+    private HostProfiles() {
+    }
+
+    static synchronized HostProfiles getInstance() {
+        if (instance == null) {
+            File file = store;
+            if (file.exists()) {
+                try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(file))) {
+                    instance = (HostProfiles) ois.readObject();
+                } catch (IOException | ClassNotFoundException e) {
+                    instance = new HostProfiles();
+                }
+            } else {
+                instance = new HostProfiles();
+            }
+        }
+        return instance;
+    }
+
+    // Lets the load scenarios keep the profiles out of the working directory.
+    static synchronized void useStore(File file) {
+        store = file;
+        instance = null;
+    }
+
+    // The probe shows whether ranges are honoured and which protocol was negotiated; the gap
+    // between sending the request and receiving the headers stands in for the round trip.
+    // Range support is kept for reference only: it can differ per resource on one host, so
+    // each download's own probe decides whether it is split.
+    synchronized void recordProbe(Response response, boolean rangesSupported) {
+        String host = response.request().url().host();
+        boolean known = profiles.containsKey(host);
+        HostProfile profile = profile(host);
+        boolean http2 = response.protocol() == Protocol.HTTP_2;
+        boolean changed = !known || profile.rangesSupported != rangesSupported || profile.http2 != http2;
+        profile.rangesSupported = rangesSupported;
+        profile.http2 = http2;
+        long rtt = response.receivedResponseAtMillis() - response.sentRequestAtMillis();
+        if (rtt >= 0) {
+            profile.rttMillis = profile.rttMillis == 0 ? rtt : smooth(profile.rttMillis, rtt);
+        }
+        if (changed) {
+            save();
+        }
+    }
+
+    synchronized void recordTransfer(String host, long bytes, long nanos) {
+        if (bytes < MIN_TRANSFER_BYTES || nanos <= 0) {
+            return;
+        }
+        HostProfile profile = profile(host);
+        double throughput = bytes * 1e9 / nanos;
+        profile.connectionThroughput = profile.connectionThroughput == 0 ? throughput : smooth(profile.connectionThroughput, throughput);
+    }
+
+    // Short downloads are dominated by setup latency and say little about the connection count.
+    synchronized void recordDownload(String host, int connections, long bytes, long nanos) {
+        if (bytes < MIN_SAMPLE_BYTES || nanos <= 0 || connections <= 0) {
+            return;
+        }
+        double throughput = bytes * 1e9 / nanos;
+        profile(host).throughputByConnections.merge(connections, throughput, HostProfiles::smooth);
+        save();
+    }
+
+    synchronized int segmentCountFor(String host, int fallback) {
+        HostProfile profile = profiles.get(host);
+        if (profile == null) {
+            return fallback;
+        }
+        int best = profile.bestConnections();
+        if (best == 0) {
+            return fallback;
+        }
+        int ceiling = Math.max(fallback, SettingModel.getInstance().getHostConnectionLimit());
+        Map<Integer, Double> tried = profile.throughputByConnections;
+        if (best < ceiling && !tried.containsKey(best + 1)) {
+            return best + 1;
+        }
+        if (best > 1 && !tried.containsKey(best - 1)) {
+            return best - 1;
+        }
+        return Math.min(best, ceiling);
+    }
+
+    // Lets the per-host connection limit start at what the host has sustained before.
+    synchronized int knownConnections(String host) {
+        HostProfile profile = profiles.get(host);
+        return profile != null ? profile.bestConnections() : 0;
+    }
+
+    private HostProfile profile(String host) {
+        HostProfile profile = profiles.computeIfAbsent(host, key -> new HostProfile());
+        profile.updated = System.currentTimeMillis();
+        return profile;
+    }
+
+    private static double smooth(double previous, double sample) {
+        return previous + SMOOTHING * (sample - previous);
+    }
+
+    private void save() {
+        while (profiles.size() > MAX_HOSTS) {
+            profiles.entrySet().stream()
+                    .min(Map.Entry.comparingByValue((a, b) -> Long.compare(a.updated, b.updated)))
+                    .ifPresent(oldest -> profiles.remove(oldest.getKey()));
+        }
+        File target = store;
+        saveExecutor.execute(() -> {
+            synchronized (this) {
+                try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(target))) {
+                    oos.writeObject(this);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+}
@@ -0,0 +1,159 @@
+package at.dwnld.services;
+
+import at.dwnld.models.SettingModel;
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.NoRouteToHostException;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+// Spreads segment connections over the configured local source addresses. Each address gets
+// its own client, bound through a BoundSocketFactory, and each new segment goes to the lane
+// with the best measured throughput per active segment. Lanes that fail to connect sit out
+// for a while and the request is retried on the next one.
+class InterfaceBalancer {
+
+    private static final long DOWN_MILLIS = 30_000;
+    private static final double SMOOTHING = 0.3;
+    private static final int LANE_IDLE_CONNECTIONS = 16;
+
+    private final OkHttpClient client;
+    private List<String> addresses = List.of();
+    private List<Lane> lanes = List.of();
+
+    static final class Lane {
+        final String address;
+        final OkHttpClient client;
+        final AtomicInteger active = new AtomicInteger();
+        volatile double throughput;
+        volatile long downUntil;
+
+        Lane(String address, OkHttpClient client) {
+            this.address = address;
+            this.client = client;
+        }
+
+        void record(long bytes, long nanos) {
+            if (bytes <= 0 || nanos <= 0) {
+                return;
+            }
+            double sample = bytes / (nanos / 1e9);
+            throughput = throughput == 0 ? sample : throughput * (1 - SMOOTHING) + sample * SMOOTHING;
+        }
+
+        void release() {
+            active.decrementAndGet();
+        }
+
+        void markDown() {
+            downUntil = System.currentTimeMillis() + DOWN_MILLIS;
+            throughput = 0;
+        }
+    }
+
+    record Lease(Lane lane, Response response) {}
+
+    InterfaceBalancer(OkHttpClient client) {
+        this.client = client;
+    }
+
+    // Returns null lane when no source addresses are configured.
+    Lease execute(Request request, Consumer<Call> onCall) throws IOException {
+        List<Lane> candidates = new ArrayList<>(lanes());
+        if (candidates.isEmpty()) {
+            Call call = client.newCall(request);
+            onCall.accept(call);
+            return new Lease(null, call.execute());
+        }
+
+        IOException lastFailure = null;
+        while (!candidates.isEmpty()) {
+            Lane lane = pick(candidates);
+            candidates.remove(lane);
+            lane.active.incrementAndGet();
+            Call call = lane.client.newCall(request);
+            onCall.accept(call);
+            try {
+                return new Lease(lane, call.execute());
+            } catch (ConnectException | NoRouteToHostException | BindException e) {
+                lane.release();
+                lane.markDown();
+                lastFailure = e;
+            } catch (IOException e) {
+                lane.release();
+                throw e;
+            }
+        }
+        throw lastFailure;
+    }
+
+    static void onTransferError(Lane lane, IOException error) {
+        if (lane != null && error instanceof SocketException) {
+            lane.markDown();
+        }
+    }
+
+    private Lane pick(List<Lane> candidates) {
+        long now = System.currentTimeMillis();
+        Lane best = null;
+        double bestScore = -1;
+        for (Lane lane : candidates) {
+            if (lane.downUntil > now) {
+                continue;
+            }
+            // Unmeasured lanes score highest so every interface gets probed.
+            double score = lane.throughput == 0 ? Double.MAX_VALUE / (lane.active.get() + 1)
+                    : lane.throughput / (lane.active.get() + 1);
+            if (score > bestScore) {
+                bestScore = score;
+                best = lane;
+            }
+        }
+        if (best == null) {
+            // Every lane is marked down; try the one that went down first.
+            for (Lane lane : candidates) {
+                if (best == null || lane.downUntil < best.downUntil) {
+                    best = lane;
+                }
+            }
+        }
+        return best;
+    }
+
+    private synchronized List<Lane> lanes() {
+        List<String> configured = SettingModel.getInstance().getSourceAddresses();
+        if (!configured.equals(addresses)) {
+            List<Lane> rebuilt = new ArrayList<>();
+            for (String address : configured) {
+                try {
+                    // OkHttp matches pooled connections by address without looking at the socket
+                    // factory, so a shared pool would hand one lane's connections to another.
+                    OkHttpClient bound = client.newBuilder()
+                            .socketFactory(new BoundSocketFactory(InetAddress.getByName(address)))
+                            .connectionPool(new ConnectionPool(LANE_IDLE_CONNECTIONS, 5, TimeUnit.MINUTES))
+                            .build();
+                    rebuilt.add(new Lane(address, bound));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            for (Lane lane : lanes) {
+                lane.client.connectionPool().evictAll();
+            }
+            addresses = List.copyOf(configured);
+            lanes = rebuilt;
+        }
+        return lanes;
+    }
+}
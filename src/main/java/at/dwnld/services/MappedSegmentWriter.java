@@ -0,0 +1,87 @@
+package at.dwnld.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+class MappedSegmentWriter implements SegmentWriter {
+
+    private static final long WINDOW_SIZE = 64L * 1024 * 1024;
+    private static final long CHECKPOINT_BYTES = 256L * 1024 * 1024;
+    private static final long CHECKPOINT_INTERVAL_NANOS = 5_000_000_000L;
+
+    private final FileChannel channel;
+    private final long end;
+    private MappedByteBuffer window;
+    private long position;
+    private long bytesSinceCheckpoint;
+    private long lastCheckpoint = System.nanoTime();
+
+    MappedSegmentWriter(File targetFile, long start, long end) throws IOException {
+        this.channel = FileChannel.open(targetFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.position = start;
+        this.end = end;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            if (window == null || !window.hasRemaining()) {
+                remap();
+            }
+            int count = Math.min(length, window.remaining());
+            window.put(buffer, offset, count);
+            offset += count;
+            length -= count;
+            position += count;
+            bytesSinceCheckpoint += count;
+        }
+    }
+
+    // The file is only forced when a checkpoint is due, so most remaps just hand the
+    // dirty pages to the OS instead of waiting for them to reach the disk.
+    private void remap() throws IOException {
+        if (window != null && checkpointDue()) {
+            checkpoint();
+        }
+        long size = Math.min(WINDOW_SIZE, end + 1 - position);
+        if (size <= 0) {
+            throw new IOException("Write past the end of segment at " + position);
+        }
+        window = channel.map(FileChannel.MapMode.READ_WRITE, position, size);
+    }
+
+    private boolean checkpointDue() {
+        return bytesSinceCheckpoint >= CHECKPOINT_BYTES
+                || System.nanoTime() - lastCheckpoint >= CHECKPOINT_INTERVAL_NANOS;
+    }
+
+    // Forces the whole file as well as the window: windows dropped at earlier remaps may
+    // still hold dirty pages.
+    private void checkpoint() throws IOException {
+        window.force();
+        channel.force(false);
+        bytesSinceCheckpoint = 0;
+        lastCheckpoint = System.nanoTime();
+    }
+
+    @Override
+    public void close() throws IOException {
+        // A paused segment closes on an interrupted thread, which would make the channel
+        // refuse to force; the flag is set aside until the file is closed.
+        boolean interrupted = Thread.interrupted();
+        try {
+            if (window != null) {
+                checkpoint();
+                window = null;
+            }
+        } finally {
+            channel.close();
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FileModel;
+import at.dwnld.models.FileStatus;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.SAXException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class MediaDownloadService {
+
+    private static final int PARALLELISM = 4;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long FETCHER_STOP_SECONDS = 5;
+    private static final long PROGRESS_INTERVAL_NANOS = 500_000_000L;
+    private static final Pattern ATTRIBUTE = Pattern.compile("([A-Z0-9-]+)=(\"[^\"]*\"|[^,]*)");
+    private static final Pattern TEMPLATE_NUMBER = Pattern.compile("\\$(Number|Time)(%0(\\d+)d)?\\$");
+
+    private final OkHttpClient client;
+
+    record MediaSegment(String url, String keyUrl, byte[] iv) {}
+
+    public MediaDownloadService(OkHttpClient client) {
+        this.client = client;
+    }
+
+    public static boolean isPlaylist(String url) {
+        if (url == null) {
+            return false;
+        }
+        String path = url.split("\\?")[0].toLowerCase();
+        return path.endsWith(".m3u8") || path.endsWith(".mpd");
+    }
+
+    public static String outputName(String fileName, String url) {
+        String extension = url.split("\\?")[0].toLowerCase().endsWith(".mpd") ? ".mp4" : ".ts";
+        int dot = fileName.lastIndexOf('.');
+        return (dot > 0 ? fileName.substring(0, dot) : fileName) + extension;
+    }
+
+    List<MediaSegment> resolve(String url, Map<String, String> headers) throws IOException {
+        String body = new String(fetch(url, headers), StandardCharsets.UTF_8);
+        if (body.contains("<MPD")) {
+            return parseDash(url, body);
+        }
+        if (body.contains("#EXT-X-STREAM-INF")) {
+            String variant = pickHlsVariant(url, body);
+            return parseHlsMedia(variant, new String(fetch(variant, headers), StandardCharsets.UTF_8));
+        }
+        return parseHlsMedia(url, body);
+    }
+
+    // Segments are fetched with bounded parallelism but written strictly in playlist order.
+    // Each fetch streams into its own part file, and the window of outstanding fetches caps
+    // how many of those exist; completed parts are appended to the output and deleted.
+    // A paused download resumes from the first segment that was not yet written.
+    void download(FileModel file, List<MediaSegment> segments, Runnable onProgress) throws IOException {
+        ExecutorService fetchers = Executors.newFixedThreadPool(PARALLELISM);
+        Map<String, byte[]> keys = new ConcurrentHashMap<>();
+        Set<Path> parts = ConcurrentHashMap.newKeySet();
+        Deque<Future<Path>> window = new ArrayDeque<>();
+        long lastProgress = 0;
+
+        try (RandomAccessFile out = new RandomAccessFile(file.getPath(), "rw")) {
+            long position = file.getDownloadedSize();
+            out.setLength(position);
+            FileChannel output = out.getChannel();
+
+            int next = file.getMediaSegmentsDone();
+            for (int i = file.getMediaSegmentsDone(); i < segments.size(); i++) {
+                while (next < segments.size() && window.size() < PARALLELISM * 2) {
+                    MediaSegment segment = segments.get(next);
+                    Path part = Path.of(file.getPath() + "." + next++ + ".part");
+                    parts.add(part);
+                    window.add(fetchers.submit(() -> fetchSegment(segment, file.getHeaders(), keys, part)));
+                }
+                if (file.getStatus() == FileStatus.paused || file.getStatus() == FileStatus.hold) {
+                    return;
+                }
+
+                Path part;
+                try {
+                    part = window.poll().get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for segment " + i);
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+                }
+
+                try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                    long size = in.size();
+                    for (long copied = 0; copied < size; ) {
+                        long count = output.transferFrom(in, position + copied, size - copied);
+                        if (count <= 0) {
+                            throw new IOException("Short read from " + part);
+                        }
+                        copied += count;
+                    }
+                    position += size;
+                }
+                Files.delete(part);
+                parts.remove(part);
+
+                file.setDownloadedSize(position);
+                file.setMediaSegmentsDone(i + 1);
+
+                if (System.nanoTime() - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgress = System.nanoTime();
+                    onProgress.run();
+                }
+            }
+        } finally {
+            stopFetchers(fetchers);
+            for (Path part : parts) {
+                part.toFile().delete();
+            }
+        }
+    }
+
+    // A pause interrupts this thread as well, so the flag is set aside while the fetchers
+    // unwind; otherwise their part files could be deleted while still being written.
+    private static void stopFetchers(ExecutorService fetchers) {
+        boolean interrupted = Thread.interrupted();
+        fetchers.shutdownNow();
+        try {
+            fetchers.awaitTermination(FETCHER_STOP_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private Path fetchSegment(MediaSegment segment, Map<String, String> headers, Map<String, byte[]> keys, Path part) throws IOException {
+        Cipher cipher = segment.keyUrl() != null ? decryptor(segment, headers, keys) : null;
+        Request.Builder requestBuilder = new Request.Builder().url(segment.url());
+        if (headers != null) {
+            headers.forEach(requestBuilder::addHeader);
+        }
+        Files.deleteIfExists(part);
+        try (Response response = client.newCall(requestBuilder.build()).execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("Unexpected response code " + response.code() + " for " + segment.url());
+            }
+            try (SegmentWriter writer = new RandomAccessSegmentWriter(part.toFile(), 0);
+                 InputStream inputStream = response.body().byteStream()) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                // CBC holds back at most one block, so an update never yields more than that extra.
+                byte[] decrypted = cipher != null ? new byte[BUFFER_SIZE + cipher.getBlockSize()] : null;
+                int bytesRead;
+                while ((bytesRead = inputStream.read(buffer)) != -1) {
+                    try {
+                        RateLimiter.getInstance().acquire(bytesRead);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while throttled");
+                    }
+                    if (cipher == null) {
+                        writer.write(buffer, 0, bytesRead);
+                    } else {
+                        writer.write(decrypted, 0, cipher.update(buffer, 0, bytesRead, decrypted));
+                    }
+                }
+                if (cipher != null) {
+                    byte[] last = cipher.doFinal();
+                    writer.write(last, 0, last.length);
+                }
+            }
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt " + segment.url(), e);
+        }
+        return part;
+    }
+
+    private Cipher decryptor(MediaSegment segment, Map<String, String> headers, Map<String, byte[]> keys) throws IOException {
+        byte[] key = keys.get(segment.keyUrl());
+        if (key == null) {
+            key = fetch(segment.keyUrl(), headers);
+            keys.put(segment.keyUrl(), key);
+        }
+        try {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(segment.iv()));
+            return cipher;
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Failed to decrypt " + segment.url(), e);
+        }
+    }
+
+    private byte[] fetch(String url, Map<String, String> headers) throws IOException {
+        Request.Builder requestBuilder = new Request.Builder().url(url);
+        if (headers != null) {
+            headers.forEach(requestBuilder::addHeader);
+        }
+        try (Response response = client.newCall(requestBuilder.build()).execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("Unexpected response code " + response.code() + " for " + url);
+            }
+            return response.body().bytes();
+        }
+    }
+
+    private static String pickHlsVariant(String url, String body) throws IOException {
+        String best = null;
+        long bestBandwidth = -1;
+        long bandwidth = -1;
+        for (String line : body.split("\\R")) {
+            line = line.trim();
+            if (line.startsWith("#EXT-X-STREAM-INF:")) {
+                String value = attributes(line.substring(18)).get("BANDWIDTH");
+                bandwidth = value != null ? Long.parseLong(value) : 0;
+            } else if (bandwidth >= 0 && !line.isEmpty() && !line.startsWith("#")) {
+                if (bandwidth > bestBandwidth) {
+                    bestBandwidth = bandwidth;
+                    best = resolveUrl(url, line);
+                }
+                bandwidth = -1;
+            }
+        }
+        if (best == null) {
+            throw new IOException("Master playlist has no variants");
+        }
+        return best;
+    }
+
+    private static List<MediaSegment> parseHlsMedia(String url, String body) throws IOException {
+        List<MediaSegment> segments = new ArrayList<>();
+        long sequence = 0;
+        String keyUrl = null;
+        byte[] keyIv = null;
+
+        for (String line : body.split("\\R")) {
+            line = line.trim();
+            if (line.startsWith("#EXT-X-MEDIA-SEQUENCE:")) {
+                sequence = Long.parseLong(line.substring(22).trim());
+            } else if (line.startsWith("#EXT-X-KEY:")) {
+                Map<String, String> key = attributes(line.substring(11));
+                String method = key.getOrDefault("METHOD", "NONE");
+                if (method.equals("NONE")) {
+                    keyUrl = null;
+                    keyIv = null;
+                } else if (method.equals("AES-128")) {
+                    keyUrl = resolveUrl(url, key.get("URI"));
+                    keyIv = key.containsKey("IV") ? HexFormat.of().parseHex(key.get("IV").substring(2)) : null;
+                } else {
+                    throw new IOException("Unsupported HLS encryption method " + method);
+                }
+            } else if (line.startsWith("#EXT-X-MAP:")) {
+                segments.add(new MediaSegment(resolveUrl(url, attributes(line.substring(11)).get("URI")), null, null));
+            } else if (!line.isEmpty() && !line.startsWith("#")) {
+                byte[] iv = keyUrl == null ? null : keyIv != null ? keyIv
+                        : ByteBuffer.allocate(16).putLong(8, sequence).array();
+                segments.add(new MediaSegment(resolveUrl(url, line), keyUrl, iv));
+                sequence++;
+            }
+        }
+        return segments;
+    }
+
+    private static Map<String, String> attributes(String list) {
+        Map<String, String> attributes = new HashMap<>();
+        Matcher matcher = ATTRIBUTE.matcher(list);
+        while (matcher.find()) {
+            attributes.put(matcher.group(1), matcher.group(2).replace("\"", ""));
+        }
+        return attributes;
+    }
+
+    // Picks the highest-bandwidth representation of the first video adaptation set.
+    // Audio and video in separate adaptation sets would need a muxer, so only one is fetched.
+    private static List<MediaSegment> parseDash(String url, String body) throws IOException {
+        Document document;
+        try {
+            // The MPD comes from the network, so DOCTYPEs and external entities are refused.
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            factory.setXIncludeAware(false);
+            factory.setExpandEntityReferences(false);
+            factory.setNamespaceAware(true);
+            document = factory.newDocumentBuilder().parse(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)));
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Invalid MPD", e);
+        }
+
+        Element mpd = document.getDocumentElement();
+        Element period = child(mpd, "Period");
+        if (period == null) {
+            throw new IOException("MPD has no Period");
+        }
+
+        Element adaptationSet = null;
+        for (Element set : children(period, "AdaptationSet")) {
+            String type = set.getAttribute("mimeType") + set.getAttribute("contentType");
+            if (adaptationSet == null || (type.contains("video") && !isVideo(adaptationSet))) {
+                adaptationSet = set;
+            }
+        }
+        if (adaptationSet == null) {
+            throw new IOException("MPD has no AdaptationSet");
+        }
+
+        Element representation = null;
+        for (Element candidate : children(adaptationSet, "Representation")) {
+            if (representation == null || parseLong(candidate.getAttribute("bandwidth"), 0) > parseLong(representation.getAttribute("bandwidth"), 0)) {
+                representation = candidate;
+            }
+        }
+        if (representation == null) {
+            throw new IOException("AdaptationSet has no Representation");
+        }
+
+        String base = baseUrl(baseUrl(baseUrl(baseUrl(url, mpd), period), adaptationSet), representation);
+        List<MediaSegment> segments = new ArrayList<>();
+
+        Element segmentList = firstChild("SegmentList", representation, adaptationSet);
+        Element template = firstChild("SegmentTemplate", representation, adaptationSet);
+        if (segmentList != null) {
+            Element initialization = child(segmentList, "Initialization");
+            if (initialization != null) {
+                segments.add(new MediaSegment(resolveUrl(base, initialization.getAttribute("sourceURL")), null, null));
+            }
+            for (Element segmentUrl : children(segmentList, "SegmentURL")) {
+                segments.add(new MediaSegment(resolveUrl(base, segmentUrl.getAttribute("media")), null, null));
+            }
+        } else if (template != null) {
+            String id = representation.getAttribute("id");
+            String bandwidth = representation.getAttribute("bandwidth");
+            if (!template.getAttribute("initialization").isEmpty()) {
+                segments.add(new MediaSegment(resolveUrl(base, fillTemplate(template.getAttribute("initialization"), id, bandwidth, 0, 0)), null, null));
+            }
+
+            long number = parseLong(template.getAttribute("startNumber"), 1);
+            long timescale = parseLong(template.getAttribute("timescale"), 1);
+            double seconds = presentationSeconds(mpd, period);
+            String media = template.getAttribute("media");
+            Element timeline = child(template, "SegmentTimeline");
+            if (timeline != null) {
+                List<Element> entries = children(timeline, "S");
+                long time = 0;
+                for (int i = 0; i < entries.size(); i++) {
+                    Element s = entries.get(i);
+                    time = parseLong(s.getAttribute("t"), time);
+                    long duration = parseLong(s.getAttribute("d"), 0);
+                    long repeat = parseLong(s.getAttribute("r"), 0);
+                    // A negative repeat count lasts until the next S@t, or else until the period ends.
+                    if (repeat < 0) {
+                        Element next = i + 1 < entries.size() ? entries.get(i + 1) : null;
+                        long until = next != null && !next.getAttribute("t").isEmpty()
+                                ? parseLong(next.getAttribute("t"), -1)
+                                : seconds >= 0 ? parseLong(template.getAttribute("presentationTimeOffset"), 0) + Math.round(seconds * timescale) : -1;
+                        if (duration <= 0 || until < 0) {
+                            throw new IOException("Cannot determine the number of DASH segments");
+                        }
+                        repeat = Math.max(0, (until - time + duration - 1) / duration - 1);
+                    }
+                    for (long r = 0; r <= repeat; r++) {
+                        segments.add(new MediaSegment(resolveUrl(base, fillTemplate(media, id, bandwidth, number++, time)), null, null));
+                        time += duration;
+                    }
+                }
+            } else {
+                long duration = parseLong(template.getAttribute("duration"), 0);
+                if (duration <= 0 || seconds < 0) {
+                    throw new IOException("Cannot determine the number of DASH segments");
+                }
+                long count = (long) Math.ceil(seconds * timescale / duration);
+                for (long i = 0; i < count; i++) {
+                    segments.add(new MediaSegment(resolveUrl(base, fillTemplate(media, id, bandwidth, number + i, i * duration)), null, null));
+                }
+            }
+        } else {
+            segments.add(new MediaSegment(base, null, null));
+        }
+        return segments;
+    }
+
+    // The period's own duration, else the whole presentation's; -1 when neither is given.
+    private static double presentationSeconds(Element mpd, Element period) {
+        String presentation = !period.getAttribute("duration").isEmpty()
+                ? period.getAttribute("duration") : mpd.getAttribute("mediaPresentationDuration");
+        return presentation.isEmpty() ? -1 : Duration.parse(presentation).toMillis() / 1000.0;
+    }
+
+    private static boolean isVideo(Element set) {
+        return (set.getAttribute("mimeType") + set.getAttribute("contentType")).contains("video");
+    }
+
+    private static String fillTemplate(String template, String id, String bandwidth, long number, long time) {
+        String filled = template.replace("$RepresentationID$", id).replace("$Bandwidth$", bandwidth).replace("$$", "$");
+        Matcher matcher = TEMPLATE_NUMBER.matcher(filled);
+        StringBuilder result = new StringBuilder();
+        while (matcher.find()) {
+            long value = matcher.group(1).equals("Number") ? number : time;
+            String formatted = matcher.group(3) != null
+                    ? String.format("%0" + matcher.group(3) + "d", value) : String.valueOf(value);
+            matcher.appendReplacement(result, formatted);
+        }
+        matcher.appendTail(result);
+        return result.toString();
+    }
+
+    private static String baseUrl(String parent, Element element) {
+        Element base = child(element, "BaseURL");
+        return base != null ? resolveUrl(parent, base.getTextContent().trim()) : parent;
+    }
+
+    private static Element firstChild(String name, Element... elements) {
+        for (Element element : elements) {
+            Element found = child(element, name);
+            if (found != null) return found;
+        }
+        return null;
+    }
+
+    private static Element child(Element parent, String name) {
+        List<Element> found = children(parent, name);
+        return found.isEmpty() ? null : found.getFirst();
+    }
+
+    private static List<Element> children(Element parent, String name) {
+        List<Element> result = new ArrayList<>();
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node instanceof Element element && name.equals(element.getLocalName())) {
+                result.add(element);
+            }
+        }
+        return result;
+    }
+
+    private static long parseLong(String value, long fallback) {
+        try {
+            return value == null || value.isEmpty() ? fallback : Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return fallback;
+        }
+    }
+
+    private static String resolveUrl(String base, String reference) {
+        HttpUrl baseUrl = HttpUrl.parse(base);
+        HttpUrl resolved = baseUrl != null ? baseUrl.resolve(reference) : null;
+        return resolved != null ? resolved.toString() : reference;
+    }
+}
@@ -0,0 +1,291 @@
+package at.dwnld.services;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Records DNS, connect, TLS, time-to-first-byte and transfer timings for every tagged call,
+// both as JFR events and as a bounded per-download history for the information dialog.
+// Only the most recently traced downloads are kept, so a long queue doesn't grow the history.
+public class NetworkTraces {
+
+    private static final int MAX_TRACES_PER_DOWNLOAD = 200;
+    private static final int MAX_TRACED_DOWNLOADS = 500;
+
+    private static final Map<String, Deque<RequestTrace>> traces = Collections.synchronizedMap(bounded(true));
+    private static final Map<String, String> aliases = Collections.synchronizedMap(bounded(false));
+
+    public record Tag(String key, String label) {}
+
+    public record RequestTrace(String label, String url, LocalDateTime started, long dnsMillis, long connectMillis,
+                               long tlsMillis, long firstByteMillis, long totalMillis, long bytes, String failure) {
+
+        public double throughput() {
+            long transferMillis = totalMillis - firstByteMillis;
+            return transferMillis > 0 ? bytes * 1000.0 / transferMillis : 0;
+        }
+    }
+
+    @Name("at.dwnld.HttpRequest")
+    @Label("HTTP Request")
+    @Category("dwnld")
+    static class HttpRequestEvent extends Event {
+        @Label("Download") String download;
+        @Label("Phase") String label;
+        @Label("URL") String url;
+        @Label("DNS") @Timespan(Timespan.MILLISECONDS) long dns;
+        @Label("Connect") @Timespan(Timespan.MILLISECONDS) long connect;
+        @Label("TLS") @Timespan(Timespan.MILLISECONDS) long tls;
+        @Label("Time To First Byte") @Timespan(Timespan.MILLISECONDS) long firstByte;
+        @Label("Bytes") @DataAmount long bytes;
+        @Label("Failure") String failure;
+    }
+
+    static EventListener.Factory listenerFactory() {
+        return call -> {
+            Tag tag = call.request().tag(Tag.class);
+            return tag != null ? new Listener(tag) : EventListener.NONE;
+        };
+    }
+
+    // Traces recorded under the probe URL before the download had a path are moved, and
+    // later ones (the probe body closes only when the first segment finishes) follow.
+    static void adopt(String url, String path) {
+        aliases.put(url, path);
+        Deque<RequestTrace> probed = traces.remove(url);
+        if (probed != null) {
+            probed.forEach(trace -> add(path, trace));
+        }
+    }
+
+    // Removed downloads take their history with them.
+    static void forget(String path) {
+        traces.remove(path);
+        aliases.values().removeIf(path::equals);
+    }
+
+    public static void clear() {
+        traces.clear();
+        aliases.clear();
+    }
+
+    private static <V> Map<String, V> bounded(boolean accessOrder) {
+        return new LinkedHashMap<>(16, 0.75f, accessOrder) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > MAX_TRACED_DOWNLOADS;
+            }
+        };
+    }
+
+    public static List<RequestTrace> get(String path) {
+        Deque<RequestTrace> recorded = traces.get(path);
+        if (recorded == null) {
+            return List.of();
+        }
+        synchronized (recorded) {
+            return new ArrayList<>(recorded);
+        }
+    }
+
+    public static void exportJson(Path target) throws IOException {
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(target))) {
+            writer.println("[");
+            boolean first = true;
+            List<String> keys;
+            synchronized (traces) {
+                keys = new ArrayList<>(traces.keySet());
+            }
+            for (String key : keys) {
+                for (RequestTrace trace : get(key)) {
+                    if (!first) {
+                        writer.println(",");
+                    }
+                    first = false;
+                    writer.print("  {\"download\": " + quote(key)
+                            + ", \"label\": " + quote(trace.label())
+                            + ", \"url\": " + quote(trace.url())
+                            + ", \"started\": " + quote(trace.started().toString())
+                            + ", \"dnsMs\": " + trace.dnsMillis()
+                            + ", \"connectMs\": " + trace.connectMillis()
+                            + ", \"tlsMs\": " + trace.tlsMillis()
+                            + ", \"firstByteMs\": " + trace.firstByteMillis()
+                            + ", \"totalMs\": " + trace.totalMillis()
+                            + ", \"bytes\": " + trace.bytes()
+                            + ", \"failure\": " + (trace.failure() != null ? quote(trace.failure()) : "null") + "}");
+                }
+            }
+            writer.println();
+            writer.println("]");
+        }
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                case '\n' -> quoted.append("\\n");
+                case '\r' -> quoted.append("\\r");
+                case '\t' -> quoted.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static void add(String key, RequestTrace trace) {
+        Deque<RequestTrace> recorded = traces.computeIfAbsent(key, k -> new ArrayDeque<>());
+        synchronized (recorded) {
+            recorded.addLast(trace);
+            if (recorded.size() > MAX_TRACES_PER_DOWNLOAD) {
+                recorded.removeFirst();
+            }
+        }
+    }
+
+    private static final class Listener extends EventListener {
+        private final Tag tag;
+        private final HttpRequestEvent event = new HttpRequestEvent();
+        private LocalDateTime started;
+        private long callStart;
+        private long dnsStart;
+        private long dns;
+        private long connectStart;
+        private long connect;
+        private long tlsStart;
+        private long tls;
+        private long firstByte;
+        private long bytes;
+        private String url;
+
+        Listener(Tag tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        public void callStart(@NotNull Call call) {
+            event.begin();
+            started = LocalDateTime.now();
+            callStart = System.nanoTime();
+            url = call.request().url().toString();
+        }
+
+        @Override
+        public void dnsStart(@NotNull Call call, @NotNull String domainName) {
+            dnsStart = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(@NotNull Call call, @NotNull String domainName, @NotNull List<InetAddress> inetAddressList) {
+            dns += System.nanoTime() - dnsStart;
+        }
+
+        @Override
+        public void connectStart(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy) {
+            connectStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(@NotNull Call call) {
+            tlsStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(@NotNull Call call, @Nullable Handshake handshake) {
+            tls += System.nanoTime() - tlsStart;
+        }
+
+        @Override
+        public void connectEnd(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy, @Nullable Protocol protocol) {
+            connect += System.nanoTime() - connectStart;
+        }
+
+        @Override
+        public void connectFailed(@NotNull Call call, @NotNull InetSocketAddress inetSocketAddress, @NotNull Proxy proxy, @Nullable Protocol protocol, @NotNull IOException ioe) {
+            connect += System.nanoTime() - connectStart;
+        }
+
+        @Override
+        public void responseHeadersEnd(@NotNull Call call, @NotNull Response response) {
+            if (firstByte == 0) {
+                firstByte = System.nanoTime() - callStart;
+            }
+            url = response.request().url().toString();
+        }
+
+        @Override
+        public void responseBodyEnd(@NotNull Call call, long byteCount) {
+            bytes += byteCount;
+        }
+
+        @Override
+        public void callEnd(@NotNull Call call) {
+            finish(null);
+        }
+
+        @Override
+        public void callFailed(@NotNull Call call, @NotNull IOException ioe) {
+            finish(ioe.toString());
+        }
+
+        private void finish(String failure) {
+            long total = System.nanoTime() - callStart;
+            // TLS happens inside the connect phase; report plain TCP connect time separately.
+            RequestTrace trace = new RequestTrace(tag.label(), url, started, millis(dns), millis(connect - tls),
+                    millis(tls), millis(firstByte), millis(total), bytes, failure);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.download = tag.key();
+                event.label = trace.label();
+                event.url = trace.url();
+                event.dns = trace.dnsMillis();
+                event.connect = trace.connectMillis();
+                event.tls = trace.tlsMillis();
+                event.firstByte = trace.firstByteMillis();
+                event.bytes = trace.bytes();
+                event.failure = failure;
+                event.commit();
+            }
+
+            add(aliases.getOrDefault(tag.key(), tag.key()), trace);
+        }
+
+        private static long millis(long nanos) {
+            return nanos / 1_000_000;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package at.dwnld.services;
+
+import at.dwnld.models.BandwidthProfile;
+import at.dwnld.models.SettingModel;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ProfileScheduler {
+
+    private final DownloadService downloadService;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "dwnld-profile-scheduler");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile BandwidthProfile activeProfile;
+    private ScheduledFuture<?> nextBoundary;
+
+    public ProfileScheduler(DownloadService downloadService) {
+        this.downloadService = downloadService;
+    }
+
+    public synchronized void start() {
+        if (nextBoundary != null) {
+            nextBoundary.cancel(false);
+        }
+        apply();
+    }
+
+    public BandwidthProfile getActiveProfile() {
+        return activeProfile;
+    }
+
+    private synchronized void apply() {
+        List<BandwidthProfile> profiles = sortedProfiles();
+        LocalTime now = LocalTime.now();
+        activeProfile = activeAt(profiles, now);
+        RateLimiter.getInstance().setRate(activeProfile != null ? activeProfile.rateLimit() : 0);
+        downloadService.requestReplan();
+
+        if (!profiles.isEmpty()) {
+            nextBoundary = scheduler.schedule(this::apply, delayToNextBoundary(profiles, now), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static List<BandwidthProfile> sortedProfiles() {
+        return SettingModel.getInstance().getProfiles().stream()
+                .sorted(Comparator.comparing(BandwidthProfile::start))
+                .toList();
+    }
+
+    // The last profile of the day keeps applying past midnight until the first one starts.
+    private static BandwidthProfile activeAt(List<BandwidthProfile> profiles, LocalTime time) {
+        if (profiles.isEmpty()) {
+            return null;
+        }
+        BandwidthProfile active = profiles.getLast();
+        for (BandwidthProfile profile : profiles) {
+            if (!profile.start().isAfter(time)) {
+                active = profile;
+            }
+        }
+        return active;
+    }
+
+    private static long delayToNextBoundary(List<BandwidthProfile> profiles, LocalTime time) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDateTime next = profiles.stream()
+                .map(profile -> profile.start().atDate(now.toLocalDate()))
+                .filter(start -> start.toLocalTime().isAfter(time))
+                .findFirst()
+                .orElse(profiles.getFirst().start().atDate(now.toLocalDate().plusDays(1)));
+        return Math.max(1, Duration.between(now, next).toMillis());
+    }
+}
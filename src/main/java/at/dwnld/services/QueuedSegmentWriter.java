@@ -0,0 +1,45 @@
+package at.dwnld.services;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+
+class QueuedSegmentWriter implements SegmentWriter {
+
+    private final DiskWriter diskWriter;
+    private final ArrayDeque<long[]> pending = new ArrayDeque<>();
+    private long position;
+    private long committed;
+    private long lastSequence;
+
+    QueuedSegmentWriter(DiskWriter diskWriter, long start) {
+        this.diskWriter = diskWriter;
+        this.position = start;
+        this.committed = start;
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        lastSequence = diskWriter.write(position, buffer, offset, length);
+        position += length;
+        pending.add(new long[]{lastSequence, position});
+    }
+
+    // Queued chunks only count once the disk writer has handed them to the file.
+    @Override
+    public long committed(long position) {
+        long written = diskWriter.writtenSequence();
+        while (!pending.isEmpty() && pending.peek()[0] <= written) {
+            committed = pending.poll()[1];
+        }
+        return committed;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            diskWriter.awaitWritten(lastSequence);
+        } finally {
+            diskWriter.release();
+        }
+    }
+}
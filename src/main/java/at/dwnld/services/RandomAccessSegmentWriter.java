@@ -0,0 +1,25 @@
+package at.dwnld.services;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+class RandomAccessSegmentWriter implements SegmentWriter {
+
+    private final RandomAccessFile raf;
+
+    RandomAccessSegmentWriter(File targetFile, long start) throws IOException {
+        this.raf = new RandomAccessFile(targetFile, "rw");
+        raf.seek(start);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        raf.write(buffer, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+}
@@ -0,0 +1,45 @@
+package at.dwnld.services;
+
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiter {
+
+    private static final RateLimiter instance = new RateLimiter();
+
+    private long bytesPerSecond;
+    private long nextFreeNanos = System.nanoTime();
+
+    private RateLimiter() {
+    }
+
+    public static RateLimiter getInstance() {
+        return instance;
+    }
+
+    public synchronized void setRate(long bytesPerSecond) {
+        this.bytesPerSecond = Math.max(0, bytesPerSecond);
+        nextFreeNanos = System.nanoTime();
+    }
+
+    public synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    // Returns how long the caller has to wait before the reserved bytes fit the cap.
+    public synchronized long reserve(long bytes) {
+        if (bytesPerSecond <= 0) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        long start = Math.max(now, nextFreeNanos);
+        nextFreeNanos = start + bytes * 1_000_000_000L / bytesPerSecond;
+        return start - now;
+    }
+
+    public void acquire(long bytes) throws InterruptedException {
+        long waitNanos = reserve(bytes);
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FileModel;
+import at.dwnld.models.FileStatus;
+import at.dwnld.models.SegmentProgress;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class RecoveryService {
+
+    private static final int TAIL_WINDOW = 64 * 1024;
+    private static final int MAX_TAIL_WINDOWS = 64;
+
+    // Anything still marked inProgress at startup was interrupted by a crash or kill.
+    // Each partial file is checked on its own thread, then the scheduler re-admits them.
+    public CompletableFuture<Void> recover(List<FileModel> downloads) {
+        List<FileModel> interrupted = new ArrayList<>();
+        for (FileModel file : downloads) {
+            if (file.getStatus() == FileStatus.inProgress) {
+                interrupted.add(file);
+            }
+        }
+        if (interrupted.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min(interrupted.size(), Runtime.getRuntime().availableProcessors()), runnable -> {
+                    Thread thread = new Thread(runnable, "dwnld-recovery");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        CompletableFuture<?>[] tasks = interrupted.stream()
+                .map(file -> CompletableFuture.runAsync(() -> recoverFile(file), executor))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(tasks).whenComplete((result, error) -> executor.shutdown());
+    }
+
+    private void recoverFile(FileModel file) {
+        File partial = new File(file.getPath());
+        try {
+            if (file.getSize() <= 0 || file.getSegmentCount() <= 0 || !partial.exists()) {
+                restartFromScratch(file, partial);
+            } else {
+                trimSegments(file, partial);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            restartFromScratchQuietly(file, partial);
+        }
+        file.setSpeed(0);
+        file.setStatus(FileStatus.hold);
+    }
+
+    // Progress is persisted after the bytes are handed to the OS, so the last stretch before
+    // each recorded offset may never have reached the disk. Offsets are clamped to the file
+    // length, moved back one window, and moved further back while the tail is still zeros.
+    private void trimSegments(FileModel file, File partial) throws IOException {
+        SegmentProgress progress = file.getProgress();
+        long downloaded = 0;
+        if (progress == null) {
+            file.setDownloadedSize(0);
+            return;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(partial, "r")) {
+            long length = raf.length();
+            byte[] window = new byte[TAIL_WINDOW];
+            for (int segmentId = 0; segmentId < file.getSegmentCount(); segmentId++) {
+                long segmentStart = file.getSegmentStart(segmentId);
+                long recorded = progress.offset(segmentId);
+                long offset = Math.max(segmentStart, Math.min(recorded, length) - TAIL_WINDOW);
+
+                for (int i = 0; i < MAX_TAIL_WINDOWS && offset > segmentStart; i++) {
+                    int count = (int) Math.min(TAIL_WINDOW, offset - segmentStart);
+                    raf.seek(offset - count);
+                    raf.readFully(window, 0, count);
+                    if (!isZero(window, count)) {
+                        break;
+                    }
+                    offset -= count;
+                }
+
+                progress.set(segmentId, offset);
+                downloaded += offset - segmentStart;
+            }
+        }
+        file.setDownloadedSize(downloaded);
+    }
+
+    private void restartFromScratch(FileModel file, File partial) throws IOException {
+        file.resetSegments();
+        file.setDownloadedSize(0);
+        if (partial.exists()) {
+            try (RandomAccessFile raf = new RandomAccessFile(partial, "rw")) {
+                raf.setLength(0);
+            }
+        }
+    }
+
+    private void restartFromScratchQuietly(FileModel file, File partial) {
+        try {
+            restartFromScratch(file, partial);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean isZero(byte[] bytes, int count) {
+        for (int i = 0; i < count; i++) {
+            if (bytes[i] != 0) return false;
+        }
+        return true;
+    }
+}
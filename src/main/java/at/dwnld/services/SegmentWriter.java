@@ -0,0 +1,15 @@
+package at.dwnld.services;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+interface SegmentWriter extends Closeable {
+
+    void write(byte[] buffer, int offset, int length) throws IOException;
+
+    // End of the bytes that are in the file, given that everything before position was
+    // passed to write. Writers that write synchronously have nothing outstanding.
+    default long committed(long position) {
+        return position;
+    }
+}
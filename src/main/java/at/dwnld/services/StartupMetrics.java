@@ -0,0 +1,46 @@
+package at.dwnld.services;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class StartupMetrics {
+
+    private static final String METRICS_FILE = "startup_metrics.log";
+    // Set by the startupBenchmark and cdsArchive Gradle tasks: the process exits once the
+    // metrics are written, which is also when a training run dumps its CDS archive.
+    private static final boolean BENCHMARK = Boolean.getBoolean("dwnld.startupBenchmark");
+    private static final long processStart = ProcessHandle.current().info().startInstant()
+            .map(Instant::toEpochMilli)
+            .orElse(System.currentTimeMillis());
+    private static final Map<String, Long> phases = new LinkedHashMap<>();
+
+    public static synchronized void mark(String phase) {
+        phases.putIfAbsent(phase, System.currentTimeMillis() - processStart);
+    }
+
+    public static synchronized long get(String phase) {
+        return phases.getOrDefault(phase, -1L);
+    }
+
+    // One line per benchmark launch so regressions show up when the log is compared over time.
+    // Ordinary launches only record the marks and write nothing.
+    public static synchronized void report() {
+        if (!BENCHMARK) {
+            return;
+        }
+        StringBuilder line = new StringBuilder(LocalDateTime.now().toString());
+        phases.forEach((phase, millis) -> line.append(' ').append(phase).append('=').append(millis).append("ms"));
+        System.out.println("Startup: " + line);
+        try (PrintWriter writer = new PrintWriter(new FileWriter(METRICS_FILE, true))) {
+            writer.println(line);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,28 @@
+package at.dwnld.services;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Whole-file writer for small downloads: the body arrives in order from offset 0, so a
+// truncating stream is enough and no seekable handle is needed.
+class StreamSegmentWriter implements SegmentWriter {
+
+    private final OutputStream out;
+
+    StreamSegmentWriter(File targetFile) throws IOException {
+        this.out = new BufferedOutputStream(new FileOutputStream(targetFile), 64 * 1024);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+        out.write(buffer, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
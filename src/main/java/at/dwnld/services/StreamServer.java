@@ -0,0 +1,126 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FileModel;
+import at.dwnld.models.FileStatus;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLConnection;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+// Loopback-only HTTP endpoint that serves streaming downloads while they arrive. Reads past
+// the contiguous watermark wait for the bytes instead of returning zeros, so a player can
+// start at offset 0 as soon as the first chunk lands.
+public class StreamServer {
+
+    private static final long POLL_MILLIS = 50;
+    private static StreamServer instance;
+
+    private final HttpServer server;
+    private final Map<String, FileModel> streams = new ConcurrentHashMap<>();
+    private final Map<String, String> tokens = new ConcurrentHashMap<>();
+
+    private StreamServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/stream/", this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+    }
+
+    public static synchronized StreamServer getInstance() throws IOException {
+        if (instance == null) {
+            instance = new StreamServer();
+        }
+        return instance;
+    }
+
+    public String urlFor(FileModel file) {
+        String token = tokens.computeIfAbsent(file.getPath(), path -> UUID.randomUUID().toString());
+        streams.put(token, file);
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/stream/" + token + "/"
+                + URLEncoder.encode(file.getName(), StandardCharsets.UTF_8).replace("+", "%20");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String[] parts = exchange.getRequestURI().getPath().split("/");
+            FileModel file = parts.length > 2 ? streams.get(parts[2]) : null;
+            if (file == null || file.getSize() <= 0) {
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            long size = file.getSize();
+            long start = 0;
+            long end = size - 1;
+            boolean partial = false;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null && range.startsWith("bytes=") && !range.contains(",")) {
+                String[] bounds = range.substring(6).split("-", -1);
+                try {
+                    if (bounds[0].isEmpty()) {
+                        start = Math.max(0, size - Long.parseLong(bounds[1]));
+                    } else {
+                        start = Long.parseLong(bounds[0]);
+                        end = bounds[1].isEmpty() ? size - 1 : Math.min(Long.parseLong(bounds[1]), size - 1);
+                    }
+                    partial = true;
+                } catch (NumberFormatException e) {
+                    start = 0;
+                    end = size - 1;
+                }
+            }
+            if (start > end) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+                exchange.sendResponseHeaders(416, -1);
+                return;
+            }
+
+            String contentType = URLConnection.guessContentTypeFromName(file.getName());
+            exchange.getResponseHeaders().set("Content-Type", contentType != null ? contentType : "application/octet-stream");
+            exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+            if (partial) {
+                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + size);
+            }
+            boolean head = exchange.getRequestMethod().equals("HEAD");
+            exchange.sendResponseHeaders(partial ? 206 : 200, head ? -1 : end - start + 1);
+            if (!head) {
+                send(file, exchange.getResponseBody(), start, end);
+            }
+        }
+    }
+
+    private static void send(FileModel file, OutputStream out, long start, long end) throws IOException {
+        byte[] buffer = new byte[64 * 1024];
+        try (RandomAccessFile raf = new RandomAccessFile(file.getPath(), "r")) {
+            long position = start;
+            while (position <= end) {
+                long available = file.getContiguousBytes();
+                if (available <= position) {
+                    FileStatus status = file.getStatus();
+                    if (status == FileStatus.failed || status == FileStatus.cancelled) {
+                        return;
+                    }
+                    Thread.sleep(POLL_MILLIS);
+                    continue;
+                }
+                int count = (int) Math.min(buffer.length, Math.min(available, end + 1) - position);
+                raf.seek(position);
+                raf.readFully(buffer, 0, count);
+                out.write(buffer, 0, count);
+                position += count;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
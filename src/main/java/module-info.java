@@ -2,6 +2,11 @@ module at.dwnld {
     requires javafx.fxml;
     requires javafx.controls;
     requires okhttp3;
+    requires java.net.http;
+    requires java.xml;
+    requires jdk.jfr;
+    requires jdk.httpserver;
+    requires jdk.unsupported;
     requires org.apache.commons.io;
     requires annotations;
     requires java.desktop;
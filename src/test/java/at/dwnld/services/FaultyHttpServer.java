@@ -0,0 +1,249 @@
+package at.dwnld.services;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Minimal HTTP/1.1 stand-in serving generated files at /file/{size}/{name}, with knobs for
+ * bandwidth, latency, Range support and injected faults, including a body that stalls after a
+ * number of bytes. Fixed documents such as delta manifests can be published at any path.
+ * Each response closes its connection unless keepAlive is set.
+ */
+class FaultyHttpServer implements Closeable {
+
+    long bandwidth;
+    long latencyMillis;
+    boolean rangeSupport = true;
+    boolean headAllowed = true;
+    double resetProbability;
+    double errorProbability;
+    int errorCode = 503;
+    double wrongRangeProbability;
+    volatile long stallAfterBytes = -1;
+    boolean keepAlive;
+    final AtomicLong bodyBytesServed = new AtomicLong();
+    final AtomicLong connectionsAccepted = new AtomicLong();
+    final AtomicLong headRequests = new AtomicLong();
+    final Map<String, byte[]> documents = new ConcurrentHashMap<>();
+    // Request paths that received a whole body, and those sent a Content-Range that lies.
+    final Set<String> servedInFull = ConcurrentHashMap.newKeySet();
+    final Set<String> mislabelled = ConcurrentHashMap.newKeySet();
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    FaultyHttpServer() throws IOException {
+        serverSocket = new ServerSocket(0, 4096, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "faulty-http-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    String url(String name, long size) {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/file/" + size + "/" + name;
+    }
+
+    static byte expectedByte(long position) {
+        return (byte) ((position * 31) ^ (position >>> 11));
+    }
+
+    static boolean isIntact(Path path, long size) throws IOException {
+        if (!Files.exists(path) || Files.size(path) != size) {
+            return false;
+        }
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+            for (long position = 0; position < size; position++) {
+                if ((byte) in.read() != expectedByte(position)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void acceptLoop() {
+        while (!serverSocket.isClosed()) {
+            try {
+                Socket socket = serverSocket.accept();
+                connectionsAccepted.incrementAndGet();
+                executor.submit(() -> handle(socket));
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (socket) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            while (serve(socket, reader, out) && keepAlive) {
+                // next request on the same connection
+            }
+        } catch (SocketException e) {
+            // the client went away or the connection was reset on purpose
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private boolean serve(Socket socket, BufferedReader reader, OutputStream out) throws IOException, InterruptedException {
+        String requestLine = reader.readLine();
+        if (requestLine == null) {
+            return false;
+        }
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            int separator = line.indexOf(':');
+            if (separator > 0) {
+                headers.put(line.substring(0, separator).trim().toLowerCase(), line.substring(separator + 1).trim());
+            }
+        }
+
+        String[] parts = requestLine.split(" ");
+        String method = parts[0];
+        if (method.equals("HEAD")) {
+            headRequests.incrementAndGet();
+        }
+        byte[] document = documents.get(parts[1]);
+        if (document != null) {
+            Map<String, String> documentHeaders = new HashMap<>();
+            documentHeaders.put("Content-Length", String.valueOf(document.length));
+            documentHeaders.put("Content-Type", "application/octet-stream");
+            if (!keepAlive) {
+                documentHeaders.put("Connection", "close");
+            }
+            writeHead(out, "200 OK", documentHeaders);
+            if (method.equals("GET")) {
+                out.write(document);
+            }
+            out.flush();
+            return true;
+        }
+
+        String[] path = parts[1].split("/");
+        long size = Long.parseLong(path[2]);
+
+        if (latencyMillis > 0) {
+            Thread.sleep(latencyMillis);
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (method.equals("HEAD") && !headAllowed) {
+            writeHead(out, "405 Method Not Allowed", Map.of("Content-Length", "0", "Connection", "close"));
+            out.flush();
+            return false;
+        }
+        if (method.equals("GET") && random.nextDouble() < errorProbability) {
+            writeHead(out, errorCode + " Unavailable", Map.of("Retry-After", "1", "Content-Length", "0"));
+            out.flush();
+            return true;
+        }
+
+        long start = 0;
+        long end = size - 1;
+        boolean partial = false;
+        String range = headers.get("range");
+        if (rangeSupport && range != null && range.startsWith("bytes=")) {
+            String[] bounds = range.substring(6).split("-", -1);
+            start = Long.parseLong(bounds[0]);
+            end = bounds[1].isEmpty() ? size - 1 : Math.min(Long.parseLong(bounds[1]), size - 1);
+            partial = true;
+        }
+
+        Map<String, String> responseHeaders = new HashMap<>();
+        responseHeaders.put("Content-Length", String.valueOf(end - start + 1));
+        responseHeaders.put("Content-Type", "application/octet-stream");
+        if (!keepAlive) {
+            responseHeaders.put("Connection", "close");
+        }
+        if (rangeSupport) {
+            responseHeaders.put("Accept-Ranges", "bytes");
+        }
+        if (partial) {
+            long advertisedStart = start;
+            if (random.nextDouble() < wrongRangeProbability) {
+                advertisedStart = start + 1;
+                mislabelled.add(parts[1]);
+            }
+            responseHeaders.put("Content-Range", "bytes " + advertisedStart + "-" + end + "/" + size);
+        }
+        writeHead(out, partial ? "206 Partial Content" : "200 OK", responseHeaders);
+
+        if (method.equals("GET")) {
+            long resetAt = random.nextDouble() < resetProbability ? start + random.nextLong(end - start + 1) : -1;
+            if (!writeBody(socket, out, start, end, resetAt)) {
+                return false;
+            }
+            if (start == 0 && end == size - 1) {
+                servedInFull.add(parts[1]);
+            }
+        }
+        out.flush();
+        return true;
+    }
+
+    private boolean writeBody(Socket socket, OutputStream out, long start, long end, long resetAt) throws IOException, InterruptedException {
+        byte[] chunk = new byte[8192];
+        long position = start;
+        long startNanos = System.nanoTime();
+        while (position <= end) {
+            int count = (int) Math.min(chunk.length, end - position + 1);
+            for (int i = 0; i < count; i++) {
+                chunk[i] = expectedByte(position + i);
+            }
+            if (resetAt >= 0 && position + count > resetAt) {
+                out.flush();
+                socket.setSoLinger(true, 0);
+                socket.close();
+                return false;
+            }
+            out.write(chunk, 0, count);
+            position += count;
+            bodyBytesServed.addAndGet(count);
+
+            if (stallAfterBytes >= 0 && position - start >= stallAfterBytes) {
+                out.flush();
+                Thread.sleep(Long.MAX_VALUE);
+            }
+
+            if (bandwidth > 0) {
+                long expectedNanos = (position - start) * 1_000_000_000L / bandwidth;
+                long aheadNanos = expectedNanos - (System.nanoTime() - startNanos);
+                if (aheadNanos > 0) {
+                    out.flush();
+                    Thread.sleep(aheadNanos / 1_000_000, (int) (aheadNanos % 1_000_000));
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void writeHead(OutputStream out, String status, Map<String, String> headers) throws IOException {
+        StringBuilder head = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n");
+        headers.forEach((name, value) -> head.append(name).append(": ").append(value).append("\r\n"));
+        head.append("\r\n");
+        out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,44 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FileModel;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Stands in for MainController: a single "UI" thread receives every runLater call, mirroring
+ * how the engine is driven from the FX thread in the real application.
+ */
+class HeadlessObserver implements DownloadObserver {
+
+    private final ObservableList<FileModel> downloads = FXCollections.observableArrayList();
+    private final ExecutorService uiThread = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "headless-ui");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    @Override
+    public ObservableList<FileModel> getDownloads() {
+        return downloads;
+    }
+
+    @Override
+    public void addDownload(FileModel file) {
+        downloads.add(file);
+    }
+
+    @Override
+    public void refreshTable() {
+    }
+
+    @Override
+    public void runLater(Runnable action) {
+        uiThread.execute(action);
+    }
+
+    void shutdown() {
+        uiThread.shutdownNow();
+    }
+}
@@ -0,0 +1,722 @@
+package at.dwnld.services;
+
+import at.dwnld.models.FileModel;
+import at.dwnld.models.FileStatus;
+import at.dwnld.models.SegmentProgress;
+import at.dwnld.models.SettingModel;
+import at.dwnld.models.WriteMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import okhttp3.OkHttpClient;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.ByteBuffer;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Drives the engine headlessly against {@link FaultyHttpServer}. Scenarios assert that every
+ * download reaches a final state, that no file is marked completed with wrong bytes, and
+ * report wall time and peak heap. The 1,000-download scenario runs with -Pload=true.
+ */
+class LoadScenarioTest {
+
+    @TempDir
+    Path downloadDir;
+
+    private FaultyHttpServer server;
+    private HeadlessObserver observer;
+    private DownloadService service;
+
+    private record ScenarioResult(List<FileModel> files, Duration wallTime, long peakHeap) {
+        long completed() {
+            return files.stream().filter(file -> file.getStatus() == FileStatus.completed).count();
+        }
+    }
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new FaultyHttpServer();
+        observer = new HeadlessObserver();
+        // Learned host profiles and indexed content would otherwise carry over between runs.
+        ContentIndex.useStore(downloadDir.resolve("content_index.dat").toFile());
+        HostProfiles.useStore(downloadDir.resolve("hosts.dat").toFile());
+        service = new DownloadService(observer);
+        SettingModel settings = SettingModel.getInstance();
+        settings.setMax_parallel(4);
+        settings.setAsyncEngine(false);
+        settings.setWriteBehind(false);
+        settings.setDirectIo(false);
+        settings.setFsync_policy(null);
+        settings.setMmap_threshold(0);
+        settings.setStreamExtract(false);
+        settings.setProfiles(List.of());
+        settings.setSourceAddresses(List.of());
+        settings.setHostConnectionLimit(0);
+        settings.setSegmentCount(0);
+        RateLimiter.getInstance().setRate(0);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        observer.shutdown();
+        server.close();
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "dwnld.load", matches = "true")
+    void thousandConcurrentDownloads() throws Exception {
+        ScenarioResult result = run(1000, 64 * 1024, 1000, Duration.ofMinutes(5));
+
+        assertEquals(1000, result.completed());
+        assertIntact(result, 64 * 1024);
+        assertTrue(result.wallTime().compareTo(Duration.ofMinutes(2)) < 0, "wall time " + result.wallTime());
+        assertTrue(result.peakHeap() < 768L * 1024 * 1024, "peak heap " + result.peakHeap());
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "dwnld.load", matches = "true")
+    void mappedWritesAgainstRandomAccessFile() throws Exception {
+        long size = 512L * 1024 * 1024;
+        SettingModel.getInstance().setMax_parallel(1);
+
+        Duration randomAccess = timeDownload(size, null);
+        Duration mapped = timeDownload(size, WriteMode.mapped);
+
+        System.out.printf("%d MB: RandomAccessFile %d ms, mapped %d ms%n",
+                size / (1024 * 1024), randomAccess.toMillis(), mapped.toMillis());
+    }
+
+    @Test
+    void slowServerWithLatency() throws Exception {
+        server.bandwidth = 256 * 1024;
+        server.latencyMillis = 100;
+
+        ScenarioResult result = run(8, 512 * 1024, 4, Duration.ofMinutes(1));
+
+        assertEquals(8, result.completed());
+        assertIntact(result, 512 * 1024);
+    }
+
+    @Test
+    void serverWithoutRangeSupport() throws Exception {
+        server.rangeSupport = false;
+
+        ScenarioResult result = run(10, 256 * 1024, 4, Duration.ofMinutes(1));
+
+        assertEquals(10, result.completed());
+        assertIntact(result, 256 * 1024);
+    }
+
+    @Test
+    void headRefusedFallsBackToRangeProbe() throws Exception {
+        server.headAllowed = false;
+
+        ScenarioResult result = run(10, 256 * 1024, 4, Duration.ofMinutes(1));
+
+        assertEquals(10, result.completed());
+        assertIntact(result, 256 * 1024);
+        assertTrue(result.files().stream().allMatch(file -> file.getSize() == 256 * 1024));
+    }
+
+    @Test
+    void randomConnectionResets() throws Exception {
+        server.resetProbability = 0.3;
+
+        ScenarioResult result = run(20, 256 * 1024, 4, Duration.ofMinutes(1));
+
+        // A reset body fails its download, so exactly the files that got a whole body complete.
+        assertEquals(server.servedInFull.size(), result.completed());
+        assertIntact(result, 256 * 1024);
+    }
+
+    @Test
+    void rateLimitedAndUnavailableResponses() throws Exception {
+        server.errorProbability = 0.3;
+        server.errorCode = 429;
+
+        ScenarioResult tooManyRequests = run(20, 128 * 1024, 4, Duration.ofMinutes(1));
+        assertEquals(20, tooManyRequests.completed());
+        assertIntact(tooManyRequests, 128 * 1024);
+
+        server.errorCode = 503;
+        ScenarioResult unavailable = run(20, 128 * 1024, 4, Duration.ofMinutes(1));
+        assertEquals(20, unavailable.completed());
+        assertIntact(unavailable, 128 * 1024);
+    }
+
+    @Test
+    void wrongContentRange() throws Exception {
+        server.wrongRangeProbability = 0.1;
+
+        // Large enough to be fetched in ranged segments rather than by one whole-file GET.
+        ScenarioResult result = run(20, 2 * 1024 * 1024, 4, Duration.ofMinutes(1));
+
+        // A mislabelled range fails its download before any of its bytes are written.
+        for (FileModel file : result.files()) {
+            boolean mislabelled = server.mislabelled.contains(URI.create(file.getUrl()).getPath());
+            assertEquals(mislabelled ? FileStatus.failed : FileStatus.completed, file.getStatus(), file.getName());
+        }
+        assertFalse(server.mislabelled.isEmpty(), "no range was mislabelled");
+        assertIntact(result, 2 * 1024 * 1024);
+    }
+
+    @Test
+    void segmentsSpreadOverLoopbackAliasesWithFailover() throws Exception {
+        // 192.0.2.1 is a documentation address that cannot be bound, so that lane must fail over.
+        SettingModel.getInstance().setSourceAddresses(List.of("127.0.0.1", "127.0.0.2", "192.0.2.1"));
+
+        ScenarioResult result = run(10, 512 * 1024, 4, Duration.ofMinutes(1));
+
+        assertEquals(10, result.completed());
+        assertIntact(result, 512 * 1024);
+    }
+
+    @Test
+    void pauseCancelsStalledSegmentsAndResumeRefetchesNothing() throws Exception {
+        pauseStalledDownloadAndResume();
+    }
+
+    @Test
+    void pauseWithWriteBehindRecordsOnlyBytesOnDisk() throws Exception {
+        SettingModel.getInstance().setWriteBehind(true);
+        pauseStalledDownloadAndResume();
+    }
+
+    private void pauseStalledDownloadAndResume() throws Exception {
+        long size = 1024 * 1024;
+        server.stallAfterBytes = 64 * 1024;
+        SettingModel.getInstance().setMax_parallel(4);
+        int offset = observer.getDownloads().size();
+        String url = server.url("stall-" + offset + ".bin", size);
+        observer.runLater(() -> {
+            try {
+                service.download(url, downloadDir.toString(), null);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+
+        FileModel file = awaitStall(offset);
+
+        long pauseMillis = pause(file);
+        assertTrue(pauseMillis < 100, "pause took " + pauseMillis + " ms");
+        assertEquals(server.bodyBytesServed.get(), writtenBytes(file), "offsets must match the bytes received");
+
+        resumeAndFinish(file, size);
+    }
+
+    @Test
+    void asyncEngineSegmentedDownloads() throws Exception {
+        SettingModel.getInstance().setAsyncEngine(true);
+
+        ScenarioResult result = run(10, 2 * 1024 * 1024, 4, Duration.ofMinutes(1));
+
+        assertEquals(10, result.completed());
+        assertIntact(result, 2 * 1024 * 1024);
+    }
+
+    @Test
+    void asyncEnginePauseRecordsBytesOnDiskAndResumes() throws Exception {
+        SettingModel.getInstance().setAsyncEngine(true);
+        pauseStalledDownloadAndResume();
+    }
+
+    @Test
+    void bulkAddedLargeFileResumesWhereItPaused() throws Exception {
+        long size = 4 * 1024 * 1024;
+        server.stallAfterBytes = 256 * 1024;
+        int offset = observer.getDownloads().size();
+        String url = server.url("bulk-large-" + offset + ".bin", size);
+        observer.runLater(() -> service.downloadAll(List.of(url), downloadDir.toString(), null));
+
+        FileModel file = awaitStall(offset);
+        assertFalse(file.isSmall(), "a large body should leave the small-file path");
+
+        pause(file);
+        assertEquals(server.bodyBytesServed.get(), writtenBytes(file), "offsets must match the bytes received");
+
+        resumeAndFinish(file, size);
+    }
+
+    // Waits until the download at offset has received bytes and then stopped receiving them.
+    private FileModel awaitStall(int offset) throws Exception {
+        long previous = -1;
+        long written = 0;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while ((written == 0 || written != previous) && System.nanoTime() < deadline) {
+            previous = written;
+            Thread.sleep(300);
+            written = snapshot().size() > offset ? writtenBytes(snapshot().get(offset)) : 0;
+        }
+        assertTrue(written > 0, "no bytes arrived before the stall");
+        return snapshot().get(offset);
+    }
+
+    private long pause(FileModel file) throws Exception {
+        CompletableFuture<Long> pauseMillis = new CompletableFuture<>();
+        observer.runLater(() -> {
+            long start = System.nanoTime();
+            service.pauseDownload(file);
+            pauseMillis.complete(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        });
+        return pauseMillis.get(5, TimeUnit.SECONDS);
+    }
+
+    private void resumeAndFinish(FileModel file, long size) throws Exception {
+        server.stallAfterBytes = -1;
+        observer.runLater(() -> service.resumeDownload(file));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+        while (!isFinal(file) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+
+        assertEquals(FileStatus.completed, file.getStatus());
+        assertTrue(FaultyHttpServer.isIntact(Path.of(file.getPath()), size));
+        assertEquals(size, server.bodyBytesServed.get(), "resume re-downloaded bytes");
+    }
+
+    @Test
+    void deltaUpdateFetchesOnlyChangedBlocks() throws Exception {
+        long size = 8L * 1024 * 1024;
+        SettingModel.getInstance().setMax_parallel(4);
+        int offset = observer.getDownloads().size();
+        String name = "image-" + offset + ".bin";
+        String url = server.url(name, size);
+
+        Path published = downloadDir.resolve(name + ".published");
+        writeExpected(published, size);
+        ByteArrayOutputStream manifest = new ByteArrayOutputStream();
+        DeltaManifest.create(published, 64 * 1024).write(manifest);
+        server.documents.put(URI.create(url).getPath() + DeltaManifest.SUFFIX, manifest.toByteArray());
+
+        // The older copy is shifted by an inserted prefix, so blocks only match at rolling
+        // offsets, and a few stretches were rewritten since.
+        Path local = downloadDir.resolve(name);
+        try (OutputStream out = Files.newOutputStream(local)) {
+            out.write(new byte[1000]);
+        }
+        writeExpected(local, size);
+        try (RandomAccessFile raf = new RandomAccessFile(local.toFile(), "rw")) {
+            for (long position : new long[]{100_000, 3_000_000, size - 10}) {
+                raf.seek(position);
+                raf.write(new byte[]{0x55, 0x66, 0x77, 0x11, 0x22, 0x33, 0x44, 0x12, 0x34, 0x56});
+            }
+        }
+        Path usersFile = downloadDir.resolve(name + ".old");
+        Files.writeString(usersFile, "not the engine's");
+
+        observer.runLater(() -> {
+            try {
+                service.download(url, downloadDir.toString(), null);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+        FileModel file = awaitFinal(offset, Duration.ofMinutes(1));
+
+        assertEquals(FileStatus.completed, file.getStatus());
+        assertTrue(file.isDelta(), "the download should have used the manifest");
+        assertTrue(FaultyHttpServer.isIntact(local, size));
+        assertTrue(server.bodyBytesServed.get() < size / 8, "fetched " + server.bodyBytesServed.get() + " bytes");
+        assertEquals("not the engine's", Files.readString(usersFile));
+        assertFalse(Files.exists(downloadDir.resolve(name + DeltaManifest.PREVIOUS_SUFFIX)));
+    }
+
+    @Test
+    void hlsMasterPlaylistResolvesToTheBestVariant() throws Exception {
+        publish("/media/low/index.m3u8", "#EXTM3U\nlow.ts\n");
+        publish("/media/high/index.m3u8", """
+                #EXTM3U
+                #EXT-X-MEDIA-SEQUENCE:7
+                #EXT-X-MAP:URI="init.mp4"
+                #EXTINF:4.0,
+                seg7.ts
+                #EXT-X-KEY:METHOD=AES-128,URI="../key.bin"
+                #EXTINF:4.0,
+                seg8.ts
+                #EXTINF:4.0,
+                https://cdn.example/seg9.ts
+                #EXT-X-ENDLIST
+                """);
+        String master = publish("/media/master.m3u8", """
+                #EXTM3U
+                #EXT-X-STREAM-INF:BANDWIDTH=800000,RESOLUTION=640x360
+                low/index.m3u8
+                #EXT-X-STREAM-INF:BANDWIDTH=2400000,CODECS="avc1.64001f,mp4a.40.2"
+                high/index.m3u8
+                """);
+        String base = master.substring(0, master.indexOf("/media/"));
+
+        List<MediaDownloadService.MediaSegment> segments = resolveMedia(master);
+
+        assertEquals(List.of(base + "/media/high/init.mp4", base + "/media/high/seg7.ts",
+                base + "/media/high/seg8.ts", "https://cdn.example/seg9.ts"), urls(segments));
+        assertNull(segments.get(1).keyUrl());
+        assertEquals(base + "/media/key.bin", segments.get(2).keyUrl());
+        // Without an IV attribute the media sequence number is the IV.
+        assertArrayEquals(ByteBuffer.allocate(16).putLong(8, 8).array(), segments.get(2).iv());
+        assertArrayEquals(ByteBuffer.allocate(16).putLong(8, 9).array(), segments.get(3).iv());
+    }
+
+    @Test
+    void dashTemplatePicksTheBestVideoAndCountsSegments() throws Exception {
+        String mpd = publish("/media/manifest.mpd", """
+                <?xml version="1.0"?>
+                <MPD xmlns="urn:mpeg:dash:schema:mpd:2011" mediaPresentationDuration="PT10S">
+                  <Period>
+                    <AdaptationSet mimeType="audio/mp4">
+                      <Representation id="audio" bandwidth="9000000"/>
+                    </AdaptationSet>
+                    <AdaptationSet mimeType="video/mp4">
+                      <SegmentTemplate timescale="1000" duration="4000" startNumber="1"
+                          initialization="$RepresentationID$/init.mp4" media="$RepresentationID$/seg-$Number%05d$.m4s"/>
+                      <Representation id="low" bandwidth="500000"/>
+                      <Representation id="high" bandwidth="1500000"/>
+                    </AdaptationSet>
+                  </Period>
+                </MPD>
+                """);
+        String base = mpd.substring(0, mpd.lastIndexOf('/') + 1);
+
+        assertEquals(List.of(base + "high/init.mp4", base + "high/seg-00001.m4s",
+                base + "high/seg-00002.m4s", base + "high/seg-00003.m4s"), urls(resolveMedia(mpd)));
+    }
+
+    @Test
+    void dashTimelineExpandsOpenEndedRepeats() throws Exception {
+        // The first r="-1" runs up to the next S@t, the last one up to the end of the period.
+        String mpd = publish("/media/timeline.mpd", """
+                <?xml version="1.0"?>
+                <MPD xmlns="urn:mpeg:dash:schema:mpd:2011">
+                  <Period duration="PT12S">
+                    <AdaptationSet contentType="video">
+                      <Representation id="v" bandwidth="1000">
+                        <SegmentTemplate timescale="1000" media="v-$Time$.m4s">
+                          <SegmentTimeline>
+                            <S t="0" d="2000" r="2"/>
+                            <S d="1000" r="-1"/>
+                            <S t="9000" d="1500" r="-1"/>
+                          </SegmentTimeline>
+                        </SegmentTemplate>
+                      </Representation>
+                    </AdaptationSet>
+                  </Period>
+                </MPD>
+                """);
+        String base = mpd.substring(0, mpd.lastIndexOf('/') + 1);
+
+        List<String> expected = new ArrayList<>();
+        for (long time : new long[]{0, 2000, 4000, 6000, 7000, 8000, 9000, 10500}) {
+            expected.add(base + "v-" + time + ".m4s");
+        }
+        assertEquals(expected, urls(resolveMedia(mpd)));
+    }
+
+    private String publish(String path, String body) {
+        server.documents.put(path, body.getBytes(StandardCharsets.UTF_8));
+        String url = server.url("x", 1);
+        return url.substring(0, url.indexOf("/file/")) + path;
+    }
+
+    private static List<MediaDownloadService.MediaSegment> resolveMedia(String url) throws IOException {
+        return new MediaDownloadService(new OkHttpClient()).resolve(url, null);
+    }
+
+    private static List<String> urls(List<MediaDownloadService.MediaSegment> segments) {
+        return segments.stream().map(MediaDownloadService.MediaSegment::url).toList();
+    }
+
+    @Test
+    void deltaManifestRoundTripsAndRejectsHostileHeaders() throws Exception {
+        Path source = downloadDir.resolve("manifest-source.bin");
+        writeExpected(source, 300_000);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DeltaManifest created = DeltaManifest.create(source, 4096);
+        created.write(bytes);
+
+        DeltaManifest parsed = DeltaManifest.parse(new ByteArrayInputStream(bytes.toByteArray()), bytes.size());
+        assertEquals(created.length, parsed.length);
+        assertEquals(created.blockSize, parsed.blockSize);
+        assertEquals(created.sha256, parsed.sha256);
+        assertArrayEquals(created.weak, parsed.weak);
+        for (int i = 0; i < created.blockCount(); i++) {
+            assertArrayEquals(created.strong[i], parsed.strong[i]);
+        }
+
+        assertThrows(IOException.class, () -> parseHeader("Length: 9223372036854775807\nBlocksize: 1\n", -1));
+        assertThrows(IOException.class, () -> parseHeader("Length: 1000000000\nBlocksize: 1024\n", 4096));
+        assertThrows(IOException.class, () -> parseHeader("Length: 100\nBlocksize: 2147483647\n", -1));
+    }
+
+    private static DeltaManifest parseHeader(String fields, long available) throws IOException {
+        String header = "dwnld-delta 1\n" + fields + "SHA-256: 00\n\n";
+        return DeltaManifest.parse(new ByteArrayInputStream(header.getBytes(StandardCharsets.US_ASCII)), available);
+    }
+
+    // Appends the expected bytes of [0, size) to the file.
+    private static void writeExpected(Path path, long size) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND), 64 * 1024)) {
+            for (long position = 0; position < size; position++) {
+                out.write(FaultyHttpServer.expectedByte(position));
+            }
+        }
+    }
+
+    @Test
+    void streamingServesBytesFromStartWhileDownloading() throws Exception {
+        long size = 12 * 1024 * 1024;
+        server.bandwidth = 2 * 1024 * 1024;
+        SettingModel.getInstance().setMax_parallel(4);
+        int offset = observer.getDownloads().size();
+        String url = server.url("stream-" + offset + ".bin", size);
+        observer.runLater(() -> {
+            try {
+                service.download(url, downloadDir.toString(), null, null, true);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (snapshot().size() <= offset && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        FileModel file = snapshot().get(offset);
+        assertTrue(file.isStreaming());
+
+        HttpURLConnection connection = (HttpURLConnection) URI.create(StreamServer.getInstance().urlFor(file)).toURL().openConnection();
+        try (InputStream in = connection.getInputStream()) {
+            byte[] first = in.readNBytes(64 * 1024);
+            FileStatus statusAtFirstBytes = file.getStatus();
+            byte[] rest = in.readAllBytes();
+
+            assertEquals(FileStatus.inProgress, statusAtFirstBytes, "first bytes should be served before completion");
+            assertEquals(size, first.length + rest.length);
+            for (int i = 0; i < first.length; i++) {
+                assertEquals(FaultyHttpServer.expectedByte(i), first[i]);
+            }
+            for (int i = 0; i < rest.length; i++) {
+                assertEquals(FaultyHttpServer.expectedByte(first.length + i), rest[i]);
+            }
+        }
+    }
+
+    @Test
+    void bulkSmallFilesSkipProbeAndReuseConnections() throws Exception {
+        int count = 2000;
+        long size = 2 * 1024;
+        server.keepAlive = true;
+        SettingModel.getInstance().setMax_parallel(32);
+        int offset = observer.getDownloads().size();
+        List<String> urls = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            urls.add(server.url("small-" + offset + "-" + i + ".json", size));
+        }
+
+        long start = System.nanoTime();
+        observer.runLater(() -> service.downloadAll(urls, downloadDir.toString(), null));
+
+        List<FileModel> files;
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        do {
+            Thread.sleep(20);
+            List<FileModel> downloads = snapshot();
+            files = downloads.size() >= offset + count ? downloads.subList(offset, offset + count) : List.of();
+        } while ((files.isEmpty() || !files.stream().allMatch(LoadScenarioTest::isFinal)) && System.nanoTime() < deadline);
+        Duration wallTime = Duration.ofNanos(System.nanoTime() - start);
+
+        assertEquals(count, files.size());
+        ScenarioResult result = new ScenarioResult(files, wallTime, 0);
+        assertEquals(count, result.completed());
+        assertIntact(result, size);
+        assertEquals(0, server.headRequests.get(), "bulk additions should not probe");
+        assertTrue(server.connectionsAccepted.get() < count / 4, "connections " + server.connectionsAccepted.get());
+        System.out.printf("%d small files in %d ms: %.0f files/s over %d connections%n",
+                count, wallTime.toMillis(), count * 1e9 / wallTime.toNanos(), server.connectionsAccepted.get());
+    }
+
+    @Test
+    void bulkPauseAndResumeReplanOnce() throws Exception {
+        int count = 300;
+        long size = 256 * 1024;
+        server.bandwidth = 128 * 1024;
+        SettingModel.getInstance().setMax_parallel(8);
+        int offset = observer.getDownloads().size();
+
+        CountDownLatch added = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            String url = server.url("bulk-" + offset + "-" + i + ".bin", size);
+            observer.runLater(() -> {
+                try {
+                    service.download(url, downloadDir.toString(), null);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    added.countDown();
+                }
+            });
+        }
+        assertTrue(added.await(1, TimeUnit.MINUTES), "downloads were not added in time");
+        List<FileModel> files = snapshot().subList(offset, offset + count);
+
+        CompletableFuture<Long> pauseNanos = new CompletableFuture<>();
+        observer.runLater(() -> {
+            long start = System.nanoTime();
+            service.pauseDownloads(files);
+            pauseNanos.complete(System.nanoTime() - start);
+        });
+        long pauseMillis = TimeUnit.NANOSECONDS.toMillis(pauseNanos.get(10, TimeUnit.SECONDS));
+        snapshot();
+        assertTrue(pauseMillis < 1000, "bulk pause took " + pauseMillis + " ms");
+        assertTrue(files.stream().noneMatch(file -> file.getStatus() == FileStatus.inProgress || file.getStatus() == FileStatus.hold),
+                "every download should be paused or already completed");
+
+        server.bandwidth = 0;
+        observer.runLater(() -> service.resumeDownloads(files));
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(1);
+        while (!files.stream().allMatch(LoadScenarioTest::isFinal) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+        }
+
+        ScenarioResult result = new ScenarioResult(files, Duration.ZERO, 0);
+        assertEquals(count, result.completed());
+        assertIntact(result, size);
+        System.out.printf("bulk pause of %d downloads took %d ms%n", count, pauseMillis);
+    }
+
+    private static long writtenBytes(FileModel file) {
+        SegmentProgress progress = file.getProgress();
+        return progress == null ? 0 : progress.downloaded();
+    }
+
+    private ScenarioResult run(int count, long size, int maxParallel, Duration timeout) throws Exception {
+        SettingModel.getInstance().setMax_parallel(maxParallel);
+        int offset = observer.getDownloads().size();
+
+        AtomicLong peakHeap = new AtomicLong();
+        Thread sampler = Thread.ofVirtual().start(() -> {
+            Runtime runtime = Runtime.getRuntime();
+            while (!Thread.currentThread().isInterrupted()) {
+                peakHeap.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), Math::max);
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        });
+
+        long start = System.nanoTime();
+        CountDownLatch added = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            String url = server.url("file-" + offset + "-" + i + ".bin", size);
+            observer.runLater(() -> {
+                try {
+                    service.download(url, downloadDir.toString(), null);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    added.countDown();
+                }
+            });
+        }
+        assertTrue(added.await(timeout.toMillis(), TimeUnit.MILLISECONDS), "downloads were not added in time");
+
+        List<FileModel> files;
+        long deadline = System.nanoTime() + timeout.toNanos();
+        do {
+            Thread.sleep(50);
+            files = snapshot().subList(offset, offset + count);
+        } while (!files.stream().allMatch(LoadScenarioTest::isFinal) && System.nanoTime() < deadline);
+
+        Duration wallTime = Duration.ofNanos(System.nanoTime() - start);
+        sampler.interrupt();
+        assertTrue(files.stream().allMatch(LoadScenarioTest::isFinal), "downloads did not settle within " + timeout);
+
+        System.out.printf("%d downloads: %d completed in %d ms, peak heap %d MB%n",
+                count, files.stream().filter(file -> file.getStatus() == FileStatus.completed).count(),
+                wallTime.toMillis(), peakHeap.get() / (1024 * 1024));
+        return new ScenarioResult(files, wallTime, peakHeap.get());
+    }
+
+    private Duration timeDownload(long size, WriteMode writeMode) throws Exception {
+        int offset = observer.getDownloads().size();
+        String url = server.url("bench-" + offset + ".bin", size);
+        long start = System.nanoTime();
+        observer.runLater(() -> {
+            try {
+                service.download(url, downloadDir.toString(), null, writeMode);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+
+        FileModel file = null;
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+        while ((file == null || !isFinal(file)) && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+            List<FileModel> downloads = snapshot();
+            file = downloads.size() > offset ? downloads.get(offset) : null;
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        assertNotNull(file, "download was not added");
+        assertEquals(FileStatus.completed, file.getStatus());
+        assertTrue(FaultyHttpServer.isIntact(Path.of(file.getPath()), size));
+        return elapsed;
+    }
+
+    private FileModel awaitFinal(int offset, Duration timeout) throws Exception {
+        FileModel file = null;
+        long deadline = System.nanoTime() + timeout.toNanos();
+        while ((file == null || !isFinal(file)) && System.nanoTime() < deadline) {
+            Thread.sleep(50);
+            List<FileModel> downloads = snapshot();
+            file = downloads.size() > offset ? downloads.get(offset) : null;
+        }
+        assertNotNull(file, "download was not added");
+        return file;
+    }
+
+    private List<FileModel> snapshot() throws Exception {
+        CompletableFuture<List<FileModel>> copy = new CompletableFuture<>();
+        observer.runLater(() -> copy.complete(new ArrayList<>(observer.getDownloads())));
+        return copy.get(10, TimeUnit.SECONDS);
+    }
+
+    private static boolean isFinal(FileModel file) {
+        FileStatus status = file.getStatus();
+        return status == FileStatus.completed || status == FileStatus.failed || status == FileStatus.cancelled;
+    }
+
+    private static void assertIntact(ScenarioResult result, long size) throws IOException {
+        for (FileModel file : result.files()) {
+            if (file.getStatus() == FileStatus.completed) {
+                assertTrue(FaultyHttpServer.isIntact(Path.of(file.getPath()), size), "corrupt file " + file.getName());
+            }
+        }
+    }
+}